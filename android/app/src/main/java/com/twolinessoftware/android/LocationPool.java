@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Recycles the Location objects sent to the test providers, so a steady
+ * stream of fixes does not allocate. LocationManager copies the location
+ * when it is set, so an instance can be reused as soon as
+ * setTestProviderLocation returns.
+ */
+public class LocationPool {
+
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private final Location[] free;
+	private int count;
+
+	public LocationPool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LocationPool(int capacity) {
+		free = new Location[capacity];
+	}
+
+	/**
+	 * @return a cleared location for the provider
+	 */
+	public synchronized Location obtain(String provider) {
+		if (count == 0)
+			return new Location(provider);
+
+		Location location = free[--count];
+		free[count] = null;
+		location.reset();
+		location.setProvider(provider);
+		return location;
+	}
+
+	public synchronized void recycle(Location location) {
+		if (count < free.length)
+			free[count++] = location;
+	}
+
+	/**
+	 * Stamps the location with the current time less its age. From API 17 on
+	 * a test location is rejected without an elapsed realtime, which the
+	 * hidden Location.makeComplete() used to be called through reflection
+	 * for.
+	 */
+	public static void makeComplete(Location location, long ageMillis) {
+		location.setTime(System.currentTimeMillis() - ageMillis);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+			location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos()
+					- ageMillis * 1000000L);
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import android.location.Location;
+
+/**
+ * Where the fixes of the sessions go: the test providers of the
+ * LocationManager in the service, a recorder in tests.
+ */
+public interface LocationSink {
+
+	/**
+	 * The location goes back to the {@link LocationPool} once this returns,
+	 * so it must be copied if it is kept.
+	 */
+	void setTestProviderLocation(String provider, Location location);
+
+}
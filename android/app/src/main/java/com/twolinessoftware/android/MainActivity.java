@@ -34,6 +34,7 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -41,6 +42,7 @@ import android.os.RemoteException;
 import android.provider.Settings;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -59,6 +61,14 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 
 	private EditText mEditTextDelay;
 
+	private CheckBox mCheckBoxTimestamps;
+
+	private EditText mEditTextRate;
+
+	private EditText mEditTextFixRate;
+
+	private EditText mEditTextProviders;
+
 	private String filepath;
 
 	private String delayTimeOnReplay = "";
@@ -88,6 +98,14 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 
 		mEditTextDelay = (EditText) findViewById(R.id.editTextDelay);
 
+		mCheckBoxTimestamps = (CheckBox) findViewById(R.id.use_gpx_timestamps);
+
+		mEditTextRate = (EditText) findViewById(R.id.editTextRate);
+
+		mEditTextFixRate = (EditText) findViewById(R.id.editTextFixRate);
+
+		mEditTextProviders = (EditText) findViewById(R.id.editTextProviders);
+
 		mEditTextDelay.setOnFocusChangeListener(new View.OnFocusChangeListener() {
 
 			public void onFocusChange(View v, boolean hasFocus) {
@@ -164,6 +182,18 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 		stopPlaybackService();
 	}
 
+	public void onClickPause(View view) {
+		try {
+			if (service != null) {
+				if (state == PlaybackService.PAUSED)
+					service.resume();
+				else
+					service.pause();
+			}
+		} catch (RemoteException e) {
+		}
+	}
+
 	/**
 	 * Opens the file manager to select a file to open.
 	 */
@@ -209,8 +239,36 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 		}
 
 
+		float rate = 1.0f;
+		String rateText = mEditTextRate.getText().toString();
+		if (!"".equals(rateText)) {
+			try {
+				rate = Float.parseFloat(rateText);
+			} catch (NumberFormatException e) {
+				Toast.makeText(this, "Invalid playback rate", Toast.LENGTH_SHORT).show();
+				return;
+			}
+		}
+
+		float fixRate = 0;
+		String fixRateText = mEditTextFixRate.getText().toString();
+		if (!"".equals(fixRateText)) {
+			try {
+				fixRate = Float.parseFloat(fixRateText);
+			} catch (NumberFormatException e) {
+				Toast.makeText(this, "Invalid fix rate", Toast.LENGTH_SHORT).show();
+				return;
+			}
+		}
+
+		String providersText = mEditTextProviders.getText().toString().trim();
+		String[] providers = "".equals(providersText) ? new String[] { LocationManager.GPS_PROVIDER }
+				: providersText.split(",");
+
 		try {
 			if (service != null) {
+				service.setProviders(providers);
+				service.setPlaybackRate(rate);
 				service.startService(filepath);
 			}
 
@@ -219,6 +277,8 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 
 		Intent i = new Intent(getApplicationContext(), PlaybackService.class);
 		i.putExtra("delayTimeOnReplay", delayTimeOnReplay);
+		i.putExtra(PlaybackService.EXTRA_USE_GPX_TIMESTAMPS, mCheckBoxTimestamps.isChecked());
+		i.putExtra(PlaybackService.EXTRA_FIX_RATE, fixRate);
 		startService(i);
 	}
 
@@ -243,15 +303,25 @@ public class MainActivity extends Activity implements GpsPlaybackListener {
 			public void run() {
 				Button start = (Button) findViewById(R.id.start);
 				Button stop = (Button) findViewById(R.id.stop);
+				Button pause = (Button) findViewById(R.id.pause);
 
 				switch (state) {
 					case PlaybackService.RUNNING:
 						start.setEnabled(false);
 						stop.setEnabled(true);
+						pause.setEnabled(true);
+						pause.setText(R.string.pause_playback);
+						break;
+					case PlaybackService.PAUSED:
+						start.setEnabled(false);
+						stop.setEnabled(true);
+						pause.setEnabled(true);
+						pause.setText(R.string.resume_playback);
 						break;
 					case PlaybackService.STOPPED:
 						start.setEnabled(true);
 						stop.setEnabled(false);
+						pause.setEnabled(false);
 						break;
 				}
 
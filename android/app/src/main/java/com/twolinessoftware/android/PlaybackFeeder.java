@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Plays the sessions whose file has been read, all on one thread: queues
+ * their points as playback reaches them, applies seeks and starts further
+ * laps. A session only has a thread of its own while it reads, and the
+ * feeder's thread ends once it has no session left.
+ */
+public class PlaybackFeeder implements Runnable {
+
+    private static final String LOG = PlaybackFeeder.class.getSimpleName();
+
+    // Longest wait for playback, which does not move while paused
+    private static final long CHECK_MILLIS = 1000;
+
+    private final SendLocationWorkerQueue queue;
+
+    // Guarded by this
+    private final ArrayList<PlaybackSession> sessions = new ArrayList<PlaybackSession>();
+
+    // Set when a session was added, sought or stopped. Guarded by this
+    private boolean changed;
+
+    // Null while there is no session to play. Guarded by this
+    private Thread thread;
+
+    public PlaybackFeeder(SendLocationWorkerQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Takes over a session once its file has been read.
+     */
+    public synchronized void add(PlaybackSession session) {
+        sessions.add(session);
+        changed = true;
+        notifyAll();
+        if (thread == null) {
+            thread = new Thread(this, LOG);
+            thread.start();
+        }
+    }
+
+    /**
+     * Has the sessions looked at again, by the feeder or by their reading
+     * thread, after a seek or a stop. Safe to call from any thread.
+     */
+    public void wake() {
+        synchronized (this) {
+            changed = true;
+            notifyAll();
+        }
+        queue.wakeWaiters();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                PlaybackSession[] current;
+                synchronized (this) {
+                    for (Iterator<PlaybackSession> it = sessions.iterator(); it.hasNext();) {
+                        if (it.next().isStopped())
+                            it.remove();
+                    }
+                    if (sessions.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                    current = sessions.toArray(new PlaybackSession[sessions.size()]);
+                    changed = false;
+                }
+
+                // Read first, so that a wake up while feeding is not missed
+                long wakeCount = queue.getWakeCount();
+
+                long due = PlaybackSession.IDLE;
+                for (PlaybackSession session : current) {
+                    due = Math.min(due, session.feed());
+                }
+
+                if (due != PlaybackSession.IDLE) {
+                    queue.awaitPlaybackPosition(due, CHECK_MILLIS, wakeCount);
+                } else {
+                    // Played out, until a seek or a stop
+                    synchronized (this) {
+                        while (!changed) {
+                            wait();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                if (thread == Thread.currentThread())
+                    thread = null;
+            }
+        }
+    }
+
+}
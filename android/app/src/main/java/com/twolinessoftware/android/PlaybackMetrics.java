@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import com.twolinessoftware.android.framework.util.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the service's playback, recorded by the queue thread for
+ * every fix and by the reading threads for every parse. Nothing takes a
+ * lock or allocates, so they are always on; {@link #snapshot()} reads them
+ * for the binder.
+ *
+ * Lateness is how long after its scheduled time a timestamped fix went to
+ * the location manager, jitter how much that changed from the stream's
+ * previous fix. Both are kept in microseconds.
+ */
+public class PlaybackMetrics {
+
+    // A timestamped fix sent this much after its time counts as late
+    static final long LATE_MICROS = TimeUnit.MILLISECONDS.toMicros(50);
+
+    // Anything later is counted as this
+    private static final long MAX_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+    private final LatencyHistogram lateness = new LatencyHistogram(MAX_MICROS);
+    private final LatencyHistogram jitter = new LatencyHistogram(MAX_MICROS);
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong lastParseNanos = new AtomicLong();
+    private final AtomicLong parsedPoints = new AtomicLong();
+
+    public void recordSent() {
+        sent.incrementAndGet();
+    }
+
+    /**
+     * @param count
+     *            fixes that were scheduled but never sent
+     */
+    public void recordDropped(long count) {
+        if (count > 0)
+            dropped.addAndGet(count);
+    }
+
+    public void recordLateness(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        lateness.record(micros);
+        if (micros > LATE_MICROS)
+            late.incrementAndGet();
+    }
+
+    public void recordJitter(long nanos) {
+        jitter.record(TimeUnit.NANOSECONDS.toMicros(Math.abs(nanos)));
+    }
+
+    /**
+     * @param nanos
+     *            time spent reading the file, not waiting for playback
+     */
+    public void recordParse(long nanos, int points) {
+        parses.incrementAndGet();
+        parseNanos.addAndGet(nanos);
+        lastParseNanos.set(nanos);
+        parsedPoints.addAndGet(points);
+    }
+
+    public PlaybackStats snapshot() {
+        PlaybackStats stats = new PlaybackStats();
+        stats.fixesSent = sent.get();
+        stats.fixesDropped = dropped.get();
+        stats.fixesLate = late.get();
+
+        stats.latenessCount = lateness.getCount();
+        stats.latenessMeanMicros = Math.round(lateness.getMean());
+        stats.latenessP50Micros = lateness.getValueAtPercentile(50);
+        stats.latenessP90Micros = lateness.getValueAtPercentile(90);
+        stats.latenessP99Micros = lateness.getValueAtPercentile(99);
+        stats.latenessMaxMicros = lateness.getMax();
+
+        stats.jitterP50Micros = jitter.getValueAtPercentile(50);
+        stats.jitterP99Micros = jitter.getValueAtPercentile(99);
+        stats.jitterMaxMicros = jitter.getMax();
+
+        stats.parses = parses.get();
+        stats.parseMillis = TimeUnit.NANOSECONDS.toMillis(parseNanos.get());
+        stats.lastParseMillis = TimeUnit.NANOSECONDS.toMillis(lastParseNanos.get());
+        stats.parsedPoints = parsedPoints.get();
+        return stats;
+    }
+
+    public void reset() {
+        lateness.reset();
+        jitter.reset();
+        sent.set(0);
+        dropped.set(0);
+        late.set(0);
+        parses.set(0);
+        parseNanos.set(0);
+        lastParseNanos.set(0);
+        parsedPoints.set(0);
+    }
+
+}
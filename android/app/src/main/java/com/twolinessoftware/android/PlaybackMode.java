@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+/**
+ * What a session does when it reaches the end of its track. Laps after the
+ * first replay the decoded track from memory, each starting where the
+ * previous one ended plus the seam gap.
+ */
+public enum PlaybackMode {
+
+	/** Plays the track once, from the first point to the last. */
+	once,
+
+	/** Plays the track from the first point to the last, again and again. */
+	loop,
+
+	/** Plays the track once, from the last point to the first. */
+	reverse,
+
+	/** Plays the track forwards, then backwards, and so on. */
+	pingpong;
+
+	/**
+	 * @param lap
+	 *            0 for the first lap
+	 */
+	public boolean isReverse(int lap) {
+		return this == reverse || (this == pingpong && (lap & 1) == 1);
+	}
+
+	public boolean repeats() {
+		return this == loop || this == pingpong;
+	}
+
+}
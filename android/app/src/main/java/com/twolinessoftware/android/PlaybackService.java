@@ -22,6 +22,7 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Criteria;
+import android.location.Location;
 import android.location.LocationManager;
 import android.os.AsyncTask;
 import android.os.IBinder;
@@ -29,22 +30,22 @@ import android.os.RemoteException;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
-import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParser;
-import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
-import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
-import com.twolinessoftware.android.framework.util.Logger;
-import com.vividsolutions.jts.geom.Coordinate;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoders;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.track.TrackCache;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class PlaybackService extends Service implements GpxSaxParserListener {
+public class PlaybackService extends Service implements PlaybackSession.Callback {
 
     private NotificationManager mNM;
 
@@ -54,16 +55,21 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
 
     private static final int NOTIFICATION = 1;
 
-    private ArrayList<GpxTrackPoint> pointList = new ArrayList<GpxTrackPoint>();
+    public static final String EXTRA_USE_GPX_TIMESTAMPS = "useGpxTimestamps";
 
-    public static final boolean CONTINUOUS = true;
+    // Fixes per second to synthesize between track points, 0 to send the points only
+    public static final String EXTRA_FIX_RATE = "fixRate";
 
     public static final int RUNNING = 0;
     public static final int STOPPED = 1;
+    public static final int PAUSED = 2;
 
-    private static final String PROVIDER_NAME = LocationManager.GPS_PROVIDER;
+    private static final String DEFAULT_PROVIDER = LocationManager.GPS_PROVIDER;
 
-    private GpxTrackPoint lastPoint;
+    private static final GpxParserType PARSER_TYPE = GpxParserType.sax;
+
+    // Track time from the end of a lap to the start of the next one
+    private static final long DEFAULT_SEAM_MILLIS = 1000;
 
     private final IPlaybackService.Stub mBinder = new IPlaybackService.Stub() {
 
@@ -73,19 +79,47 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
 
             broadcastStateChange(RUNNING);
 
-            loadGpxFile(file);
+            // Replaces the track started by the previous call, sessions
+            // started through startSession keep playing
+            if (defaultSession != null)
+                stopSession(defaultSession.getId());
+
+            defaultSession = loadGpxFile(file, profiles);
 
         }
 
         @Override
-        public void stopService() throws RemoteException {
-            mLocationManager.removeTestProvider(PROVIDER_NAME);
+        public int startSession(String file, String provider) throws RemoteException {
+            ProviderProfile[] sessionProfiles = profiles;
+            if (provider != null && !"".equals(provider.trim())) {
+                try {
+                    sessionProfiles = setupTestProviders(new ProviderProfile[] { ProviderProfile.parse(provider) });
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG, e.getMessage());
+                    return -1;
+                }
+                if (sessionProfiles.length == 0)
+                    return -1;
+            }
+
+            broadcastStateChange(RUNNING);
+
+            PlaybackSession session = loadGpxFile(file, sessionProfiles);
+            return session != null ? session.getId() : -1;
+        }
+
+        @Override
+        public void stopSession(int sessionId) throws RemoteException {
+            PlaybackService.this.stopSession(sessionId);
+        }
 
+        @Override
+        public void stopService() throws RemoteException {
             queue.reset();
 
             broadcastStateChange(STOPPED);
 
-            cancelExistingTaskIfNecessary();
+            stopAllSessions();
 
             onGpsPlaybackStopped();
 
@@ -97,21 +131,162 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
             return state;
         }
 
+        @Override
+        public void setProviders(String[] specs) throws RemoteException {
+            if (state != STOPPED) {
+                Log.e(LOG, "Providers can only be changed while stopped");
+                return;
+            }
+
+            ProviderProfile[] newProfiles = new ProviderProfile[specs.length];
+            try {
+                for (int i = 0; i < specs.length; i++)
+                    newProfiles[i] = ProviderProfile.parse(specs[i]);
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG, e.getMessage());
+                return;
+            }
+
+            disableTestProviders();
+            profiles = setupTestProviders(newProfiles);
+        }
+
+        @Override
+        public void setPlaybackRate(float rate) throws RemoteException {
+            try {
+                queue.setPlaybackRate(rate);
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG, e.getMessage());
+            }
+        }
+
+        @Override
+        public float getPlaybackRate() throws RemoteException {
+            return queue.getPlaybackRate();
+        }
+
+        @Override
+        public void pause() throws RemoteException {
+            if (state == RUNNING) {
+                queue.pause();
+                broadcastStateChange(PAUSED);
+            }
+        }
+
+        @Override
+        public void resume() throws RemoteException {
+            if (state == PAUSED) {
+                queue.resume();
+                broadcastStateChange(RUNNING);
+            }
+        }
+
+        @Override
+        public void setPlaybackMode(String mode, long seamMillis) throws RemoteException {
+            try {
+                PlaybackMode newMode = PlaybackMode.valueOf(mode);
+                if (seamMillis < 0)
+                    throw new IllegalArgumentException("Invalid seam:" + seamMillis);
+                playbackMode = newMode;
+                PlaybackService.this.seamMillis = seamMillis;
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG, "Invalid playback mode:" + e.getMessage());
+            }
+        }
+
+        @Override
+        public void setSimplification(float toleranceMeters) throws RemoteException {
+            if (!(toleranceMeters >= 0) || Float.isInfinite(toleranceMeters)) {
+                Log.e(LOG, "Invalid simplification tolerance:" + toleranceMeters);
+                return;
+            }
+            simplifyMeters = toleranceMeters;
+        }
+
+        @Override
+        public void selectTrack(int track) throws RemoteException {
+            if (track < TrackCache.ALL_TRACKS) {
+                Log.e(LOG, "Invalid track:" + track);
+                return;
+            }
+            trackNumber = track;
+        }
+
+        @Override
+        public void seekTo(long trackTimeMillis) throws RemoteException {
+            for (PlaybackSession session : getSessions())
+                session.seekTo(trackTimeMillis);
+        }
+
+        @Override
+        public void seekToFraction(float fraction) throws RemoteException {
+            for (PlaybackSession session : getSessions())
+                session.seekToFraction(fraction);
+        }
+
+        @Override
+        public PlaybackStats getStats() throws RemoteException {
+            return metrics.snapshot();
+        }
+
+        @Override
+        public void resetStats() throws RemoteException {
+            metrics.reset();
+        }
+
     };
 
     private LocationManager mLocationManager;
 
-    private long startTimeOffset;
-
-    private long firstGpsTime;
+    // The sessions send their fixes to the test providers
+    private final LocationSink locationSink = new LocationSink() {
+        @Override
+        public void setTestProviderLocation(String provider, Location location) {
+            mLocationManager.setTestProviderLocation(provider, location);
+        }
+    };
 
     private int state;
 
     private SendLocationWorkerQueue queue;
 
+    // Plays the sessions whose file has been read
+    private PlaybackFeeder feeder;
+
+    // Always recorded, read through the binder
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+
     private boolean processing;
 
-    private ReadFileTask task;
+    // Guarded by itself
+    private final Map<Integer, PlaybackSession> sessions = new HashMap<Integer, PlaybackSession>();
+    private final Map<Integer, ReadFileTask> tasks = new HashMap<Integer, ReadFileTask>();
+    private int nextSessionId = 1;
+
+    // Each session has a reading thread until its file has been read
+    private final ExecutorService sessionExecutor = Executors.newCachedThreadPool();
+
+    // The session played through startService
+    private PlaybackSession defaultSession;
+
+    private TrackCache trackCache;
+
+    // Finds the format of each file, GPX read with PARSER_TYPE
+    private final TrackDecoders decoders = TrackDecoders.defaults(PARSER_TYPE);
+
+    private final LocationPool locationPool = new LocationPool();
+
+    // Test providers fed from the track, set through the binder while stopped
+    private volatile ProviderProfile[] profiles = { ProviderProfile.defaults(DEFAULT_PROVIDER) };
+
+    // For the sessions started from now on, set through the binder
+    private volatile PlaybackMode playbackMode = PlaybackMode.once;
+    private volatile long seamMillis = DEFAULT_SEAM_MILLIS;
+    private volatile float simplifyMeters;
+    private volatile int trackNumber = TrackCache.ALL_TRACKS;
+
+    // Names of the test providers added so far
+    private final Set<String> testProviders = new HashSet<String>();
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -125,11 +300,14 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
 
         mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 
-        queue = new SendLocationWorkerQueue();
+        queue = new SendLocationWorkerQueue(metrics);
+        feeder = new PlaybackFeeder(queue);
+
+        trackCache = new TrackCache(new File(getCacheDir(), "tracks"));
 
         broadcastStateChange(STOPPED);
 
-        setupTestProvider();
+        profiles = setupTestProviders(profiles);
 
         processing = false;
 
@@ -141,13 +319,21 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
         Log.d(LOG, "Starting Playback Service");
 
         String timeFromIntent = null;
+        boolean useGpxTimestamps = false;
+        float fixRate = 0;
         try {
             timeFromIntent = intent.getStringExtra("delayTimeOnReplay");
+            useGpxTimestamps = intent.getBooleanExtra(EXTRA_USE_GPX_TIMESTAMPS, false);
+            fixRate = intent.getFloatExtra(EXTRA_FIX_RATE, 0);
         } catch (java.lang.NullPointerException npe) {
             // suppress npe if delay time not available.
         }
 
-        if (timeFromIntent != null && !"".equalsIgnoreCase(timeFromIntent)) {
+        queue.setInterpolationInterval(fixRate > 0 ? Math.max(1, Math.round(1000 / fixRate)) : 0);
+
+        if (useGpxTimestamps) {
+            queue.start(SendLocationWorkerQueue.MODE_TIMESTAMPS, 0);
+        } else if (timeFromIntent != null && !"".equalsIgnoreCase(timeFromIntent)) {
             long delayTimeOnReplay = Long.valueOf(timeFromIntent);
             queue.start(delayTimeOnReplay);
         }
@@ -163,36 +349,76 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
 
     }
 
-    private void cancelExistingTaskIfNecessary() {
-        if (task != null) {
-            try {
-                task.cancel(true);
-            } catch (Exception e) {
-                Log.e(LOG, "Unable to cancel playback task. May already be stopped");
-            }
-        }
-    }
+    /**
+     * @return the new session, or null if there is no file
+     */
+    private PlaybackSession loadGpxFile(String file, ProviderProfile[] sessionProfiles) {
+        if (file == null)
+            return null;
 
-    private void loadGpxFile(String file) {
-        if (file != null) {
+        broadcastStatus(GpsPlaybackBroadcastReceiver.Status.fileLoadStarted);
 
-            broadcastStatus(GpsPlaybackBroadcastReceiver.Status.fileLoadStarted);
+        PlaybackSession session;
+        ReadFileTask task;
+        synchronized (sessions) {
+            session = new PlaybackSession(nextSessionId++, sessionProfiles, queue, feeder, locationSink, locationPool,
+                    this, playbackMode, seamMillis, simplifyMeters, trackNumber);
+            task = new ReadFileTask(session, file);
+            sessions.put(session.getId(), session);
+            tasks.put(session.getId(), task);
+        }
+
+        // Reading waits on playback, so sessions can not share the serial
+        // AsyncTask thread: the second one would not start until the first
+        // had been read
+        task.executeOnExecutor(sessionExecutor, null, null);
 
-            cancelExistingTaskIfNecessary();
+        // Display a notification about us starting.  We put an icon in the status bar.
+        showNotification();
 
-            task = new ReadFileTask(file);
-            task.execute(null, null);
+        return session;
+    }
 
-            // Display a notification about us starting.  We put an icon in the status bar.
-            showNotification();
+    private void stopSession(int sessionId) {
+        PlaybackSession session;
+        ReadFileTask task;
+        synchronized (sessions) {
+            session = sessions.remove(sessionId);
+            task = tasks.remove(sessionId);
         }
+        if (session == null)
+            return;
 
+        session.stop();
+        cancelTask(task);
+
+        if (session == defaultSession)
+            defaultSession = null;
     }
 
+    private PlaybackSession[] getSessions() {
+        synchronized (sessions) {
+            return sessions.values().toArray(new PlaybackSession[sessions.size()]);
+        }
+    }
+
+    private void stopAllSessions() {
+        Integer[] ids;
+        synchronized (sessions) {
+            ids = sessions.keySet().toArray(new Integer[sessions.size()]);
+        }
+        for (Integer id : ids)
+            stopSession(id);
+    }
 
-    private void queueGpxPositions(String xml) {
-        GpxSaxParser parser = new GpxSaxParser(this);
-        parser.parse(xml);
+    private void cancelTask(ReadFileTask task) {
+        if (task != null) {
+            try {
+                task.cancel(true);
+            } catch (Exception e) {
+                Log.e(LOG, "Unable to cancel playback task. May already be stopped");
+            }
+        }
     }
 
     private void onGpsPlaybackStopped() {
@@ -202,25 +428,52 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
         // Cancel the persistent notification.
         mNM.cancel(NOTIFICATION);
 
-        disableGpsProvider();
+        disableTestProviders();
 
     }
 
-    private void disableGpsProvider() {
+    private void disableTestProviders() {
+        synchronized (testProviders) {
+            for (String name : testProviders) {
 
-        if (mLocationManager.getProvider(PROVIDER_NAME) != null) {
+                if (mLocationManager.getProvider(name) != null) {
 
-            mLocationManager.setTestProviderEnabled(PROVIDER_NAME, false);
-            mLocationManager.clearTestProviderEnabled(PROVIDER_NAME);
-            mLocationManager.clearTestProviderLocation(PROVIDER_NAME);
+                    mLocationManager.setTestProviderEnabled(name, false);
+                    mLocationManager.clearTestProviderEnabled(name);
+                    mLocationManager.clearTestProviderLocation(name);
 
-            mLocationManager.removeTestProvider(PROVIDER_NAME);
+                    mLocationManager.removeTestProvider(name);
 
+                }
+            }
+            testProviders.clear();
         }
     }
 
-    private void setupTestProvider() {
-        mLocationManager.addTestProvider(PROVIDER_NAME, false, //requiresNetwork,
+    /**
+     * @return the profiles whose test provider could be added
+     */
+    private ProviderProfile[] setupTestProviders(ProviderProfile[] candidates) {
+        List<ProviderProfile> added = new ArrayList<ProviderProfile>();
+        synchronized (testProviders) {
+            for (ProviderProfile profile : candidates) {
+                try {
+                    if (!testProviders.contains(profile.getName())) {
+                        setupTestProvider(profile.getName());
+                        testProviders.add(profile.getName());
+                    }
+                    added.add(profile);
+                } catch (IllegalArgumentException e) {
+                    // e.g. the passive provider, which can't be mocked
+                    Log.e(LOG, "Unable to mock provider " + profile.getName() + ":" + e.getMessage());
+                }
+            }
+        }
+        return added.toArray(new ProviderProfile[added.size()]);
+    }
+
+    private void setupTestProvider(String name) {
+        mLocationManager.addTestProvider(name, false, //requiresNetwork,
                 false, // requiresSatellite,
                 false, // requiresCell,
                 false, // hasMonetaryCost,
@@ -230,7 +483,7 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
                 Criteria.POWER_LOW, // powerRequirement
                 Criteria.ACCURACY_FINE); // accuracy
 
-        mLocationManager.setTestProviderEnabled("gps", true);
+        mLocationManager.setTestProviderEnabled(name, true);
     }
 
 
@@ -257,118 +510,11 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
         mNM.notify(NOTIFICATION, notification);
     }
 
-    private String loadFile(String file) {
-
-        try {
-            File f = new File(file);
-
-            FileInputStream fileIS = new FileInputStream(f);
-
-            BufferedReader buf = new BufferedReader(new InputStreamReader(fileIS));
-
-            String readString = new String();
-
-            StringBuffer xml = new StringBuffer();
-            while ((readString = buf.readLine()) != null) {
-                xml.append(readString);
-            }
-
-            Logger.d(LOG, "Finished reading in file");
-
-            return xml.toString();
-
-        } catch (Exception e) {
-            broadcastError("Error in the GPX file, unable to read it");
-        }
-
-        return null;
-    }
-
-
     @Override
-    public void onGpxError(String message) {
+    public void onSessionError(PlaybackSession session, String message) {
         broadcastError(message);
     }
 
-
-    @Override
-    public void onGpxPoint(GpxTrackPoint item) {
-
-        long delay = System.currentTimeMillis() + 2000; // ms until the point should be displayed
-
-        long gpsPointTime = 0;
-
-        // Calculate the delay
-        if (item.getTime() != null) {
-            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-
-            try {
-                Date gpsDate = format.parse(item.getTime());
-                gpsPointTime = gpsDate.getTime();
-            } catch (ParseException e) {
-                Log.e(LOG, "Unable to parse time:" + item.getTime());
-            }
-
-            if (firstGpsTime == 0)
-                firstGpsTime = gpsPointTime;
-
-
-            if (startTimeOffset == 0)
-                startTimeOffset = System.currentTimeMillis();
-
-
-            delay = (gpsPointTime - firstGpsTime) + startTimeOffset;
-        }
-
-        if (lastPoint != null) {
-            item.setHeading(calculateHeadingFromPreviousPoint(lastPoint, item));
-            item.setSpeed(calculateSpeedFromPreviousPoint(lastPoint, item));
-        } else {
-            item.setHeading(0.0);
-            item.setSpeed(15.0);
-        }
-
-        lastPoint = item;
-
-        pointList.add(item);
-        if (state == RUNNING) {
-            if (delay > 0) {
-                Log.d(LOG, "Sending Point in:" + (delay - System.currentTimeMillis()) + "ms");
-
-                SendLocationWorker worker = new SendLocationWorker(mLocationManager, item, PROVIDER_NAME, delay);
-                queue.addToQueue(worker);
-            } else {
-                Log.e(LOG, "Invalid Time at Point:" + gpsPointTime + " delay from current time:" + delay);
-            }
-        }
-
-    }
-
-    private double calculateHeadingFromPreviousPoint(GpxTrackPoint currentPoint, GpxTrackPoint lastPoint) {
-
-        double angleBetweenPoints = Math.atan2((lastPoint.getLon() - currentPoint.getLon()), (lastPoint.getLat() - currentPoint.getLat()));
-        return Math.toDegrees(angleBetweenPoints);
-    }
-
-    private double calculateSpeedFromPreviousPoint(GpxTrackPoint currentPoint, GpxTrackPoint lastPoint) {
-
-        Coordinate startCoordinate = new Coordinate(lastPoint.getLon(), lastPoint.getLat());
-        Coordinate endCoordinate = new Coordinate(currentPoint.getLon(), currentPoint.getLat());
-        double distance = startCoordinate.distance(endCoordinate) * 100000;
-        return distance;
-
-    }
-
-    @Override
-    public void onGpxStart() {
-        // Start Parsing
-    }
-
-    @Override
-    public void onGpxEnd() {
-        // End Parsing
-    }
-
     private void broadcastStatus(GpsPlaybackBroadcastReceiver.Status status) {
         Intent i = new Intent(GpsPlaybackBroadcastReceiver.INTENT_BROADCAST);
         i.putExtra(GpsPlaybackBroadcastReceiver.INTENT_STATUS, status.toString());
@@ -392,31 +538,42 @@ public class PlaybackService extends Service implements GpxSaxParserListener {
 
     private class ReadFileTask extends AsyncTask<Void, Integer, Void> {
 
+        private PlaybackSession session;
+
         private String file;
 
-        public ReadFileTask(String file) {
+        public ReadFileTask(PlaybackSession session, String file) {
             super();
+            this.session = session;
             this.file = file;
         }
 
         @Override
         protected void onPostExecute(Void result) {
+            synchronized (sessions) {
+                tasks.remove(session.getId());
+            }
             broadcastStatus(GpsPlaybackBroadcastReceiver.Status.fileLoadfinished);
         }
 
         @Override
         protected Void doInBackground(Void... arg0) {
 
-            // Reset the existing values
-            firstGpsTime = 0;
-
-            startTimeOffset = 0;
-
-            String xml = loadFile(file);
+            synchronized (sessions) {
+                // Nothing else is playing, start the shared clock over
+                if (sessions.size() == 1 && sessions.containsValue(session))
+                    queue.startClock(0);
+            }
 
             publishProgress(1);
 
-            queueGpxPositions(xml);
+            // Points are queued as they are parsed, so playback can begin
+            // before the end of the file has been read.
+            try {
+                session.play(new File(file), trackCache, decoders);
+            } catch (FileNotFoundException e) {
+                broadcastError("Error in the GPX file, unable to read it");
+            }
 
             return null;
         }
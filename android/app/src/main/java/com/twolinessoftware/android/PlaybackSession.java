@@ -0,0 +1,655 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import android.util.Log;
+
+import com.twolinessoftware.android.framework.service.comms.TrackDecoders;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackCache;
+import com.twolinessoftware.android.framework.track.TrackSimplifier;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * One track being played to one set of providers. Sessions keep their own
+ * track and timing state and share the service's queue thread and clock,
+ * so several routes can be driven at once.
+ *
+ * Points are queued as they are read, but never more than LOOKAHEAD_MILLIS
+ * ahead of playback: reading waits for playback to catch up. Tracks longer
+ * than MAX_HELD_POINTS release the points played a while ago, so memory
+ * follows the lookahead window instead of the length of the file.
+ *
+ * Points read without a time, as in routes or most KML and CSV files, are
+ * given one UNTIMED_INTERVAL_MILLIS after the previous point, so they are
+ * paced, released and sought like recorded ones.
+ *
+ * Optionally the track is simplified once it has been read, see
+ * {@link TrackSimplifier}, and only then played.
+ *
+ * Once the file has been read the reading thread is let go and the
+ * service's {@link PlaybackFeeder} plays the rest: the points still ahead
+ * of the lookahead window, the points again after a seek and further laps
+ * of the track from memory in the repeating {@link PlaybackMode}s.
+ *
+ * A session can play a single track or route of the file. The others are
+ * kept while reading, if they fit in MAX_HELD_POINTS, and cached as well, so
+ * that picking one of them later does not read the file again.
+ */
+public class PlaybackSession implements GpxSaxParserListener, GpxStructureListener {
+
+    private static final String LOG = PlaybackSession.class.getSimpleName();
+
+    // Track time queued ahead of playback, and kept behind it
+    private static final long LOOKAHEAD_MILLIS = 30000;
+
+    // Longest wait for playback before a reader checks again; seeks and
+    // stops wake it up
+    private static final long STOP_CHECK_MILLIS = 250;
+
+    // Points kept before the played ones are released, about 12MB
+    private static final int MAX_HELD_POINTS = 1 << 18;
+
+    // Track time between points read without a time
+    private static final long UNTIMED_INTERVAL_MILLIS = 1000;
+
+    private static final long NO_SEEK = -1;
+
+    // Returned by feed() when nothing is waiting for playback
+    static final long IDLE = Long.MAX_VALUE;
+
+    /**
+     * Thrown from the listener to abandon the parse of a stopped session.
+     * Parsers report it through onGpxError, or it reaches play().
+     */
+    private static class StoppedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StoppedException() {
+            super("Session stopped");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+    public interface Callback {
+
+        void onSessionError(PlaybackSession session, String message);
+
+    }
+
+    private final int id;
+
+    private final ProviderProfile[] profiles;
+
+    private final SendLocationWorkerQueue queue;
+
+    private final PlaybackFeeder feeder;
+
+    private final LocationSink sink;
+
+    private final LocationPool locationPool;
+
+    private final Callback callback;
+
+    private final PlaybackMode mode;
+
+    // Track milliseconds between the end of a lap and the start of the next
+    private final long seamMillis;
+
+    // Meters the route may move when simplified, 0 to play every point
+    private final float simplifyMeters;
+
+    // Track or route of the file to play, TrackCache.ALL_TRACKS for every one
+    private final int trackNumber;
+
+    // Track or route being read, -1 before the first
+    private int readingTrack = -1;
+
+    // Points of the tracks not played, by number, null for the one played.
+    // Null once they no longer fit
+    private ArrayList<TrackBuffer> otherTracks;
+    private int otherPoints;
+
+    private volatile TrackBuffer track = new TrackBuffer();
+
+    // Queue track time at which the current lap starts
+    private long origin;
+
+    private volatile long firstGpsTime;
+
+    // Time of the last point, once the whole track has been read
+    private long lastGpsTime;
+
+    private boolean readDone;
+
+    // The current lap, from 0, and whether it runs backwards
+    private int lap;
+    private boolean reverseLap;
+
+    // Next point to queue, counting down in a reverse lap
+    private int next;
+
+    // Points before this GPS time are not queued, after a seek
+    private long skipBefore;
+
+    // Track time to seek to, NO_SEEK for none. Written under this
+    private volatile long pendingSeek = NO_SEEK;
+
+    // Points below this have been played by every profile
+    private int played;
+
+    private final long maxLatency;
+
+    // Track time of the point last queued for each profile, -1 for none
+    private final long[] lastQueued;
+
+    // Queue stream of each profile, -1 until playing. Guarded by this
+    private final int[] streams;
+
+    // Same for the laps played backwards, unused unless the mode has them
+    private final int[] reverseStreams;
+
+    // Hands the points to the queue from the reading thread, then the
+    // feeder's. Guarded by this
+    private SendLocationWorkerQueue.Producer producer;
+
+    private boolean parseFailed;
+
+    // Reading thread time spent waiting for playback, left out of the parse time
+    private long waitedNanos;
+
+    private volatile boolean stopped;
+
+    public PlaybackSession(int id, ProviderProfile[] profiles, SendLocationWorkerQueue queue, PlaybackFeeder feeder,
+                           LocationSink sink, LocationPool locationPool, Callback callback,
+                           PlaybackMode mode, long seamMillis, float simplifyMeters, int trackNumber) {
+        this.id = id;
+        this.profiles = profiles;
+        this.queue = queue;
+        this.feeder = feeder;
+        this.sink = sink;
+        this.locationPool = locationPool;
+        this.callback = callback;
+        this.mode = mode;
+        this.seamMillis = seamMillis;
+        this.simplifyMeters = simplifyMeters;
+        this.trackNumber = trackNumber;
+        if (trackNumber != TrackCache.ALL_TRACKS)
+            otherTracks = new ArrayList<TrackBuffer>();
+        reverseLap = mode.isReverse(0);
+
+        lastQueued = new long[profiles.length];
+        Arrays.fill(lastQueued, -1);
+
+        long latency = 0;
+        for (ProviderProfile profile : profiles) {
+            latency = Math.max(latency, profile.getLatencyMillis());
+        }
+        maxLatency = latency;
+
+        streams = new int[profiles.length];
+        Arrays.fill(streams, -1);
+        reverseStreams = new int[profiles.length];
+        Arrays.fill(reverseStreams, -1);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ProviderProfile[] getProfiles() {
+        return profiles;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Drops the fixes of this session that are still queued. Safe to call
+     * from any thread.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (this) {
+            unregisterStreams();
+            if (producer != null)
+                producer.close();
+        }
+        // The reader or the feeder lets go of the session
+        feeder.wake();
+    }
+
+    /**
+     * Moves playback to a time into the current lap, counted from the point
+     * it started at, without reading the file again. Points that have been released can not
+     * be sought back to. Safe to call from any thread.
+     */
+    public synchronized void seekTo(long trackTimeMillis) {
+        if (stopped)
+            return;
+
+        // Fixes queued for the old position go with their streams
+        unregisterStreams();
+        pendingSeek = Math.max(0, trackTimeMillis);
+        feeder.wake();
+    }
+
+    /**
+     * @param fraction
+     *            0 for the first point, 1 for the last point read so far
+     */
+    public void seekToFraction(float fraction) {
+        TrackBuffer points = track;
+        int last = points.size() - 1;
+        long first = firstGpsTime;
+        if (last < 0 || first == 0) {
+            Log.e(LOG, "Session " + id + " has no timed points to seek in yet");
+            return;
+        }
+
+        double clamped = Math.max(0, Math.min(1, fraction));
+        seekTo(Math.round((points.getTime(last) - first) * clamped));
+    }
+
+    /**
+     * Queues the points of the file as they are read, starting at the
+     * current position of the queue's clock. Tracks that have been played
+     * before come from the cache. Returns once the file has been read, and
+     * hands the session to the feeder unless it was stopped.
+     */
+    public void play(File source, TrackCache trackCache, TrackDecoders decoders) throws FileNotFoundException {
+        origin = queue.getTrackTime();
+
+        TrackBuffer cached = trackCache.load(source, trackNumber);
+        if (cached != null) {
+            Log.d(LOG, "Playing " + cached.size() + " points from the track cache");
+
+            // Played straight from the mapped file unless it is to be simplified
+            track = simplifyMeters > 0 ? cached.copy() : cached;
+            registerStreams();
+            firstGpsTime = firstTime(cached);
+        } else {
+            registerStreams();
+            long started = System.nanoTime();
+            try {
+                decoders.decode(source, this);
+            } catch (StoppedException e) {
+                // Not read to the end
+            }
+            if (!parseFailed && !stopped)
+                queue.getMetrics().recordParse(System.nanoTime() - started - waitedNanos, track.size());
+
+            if (!parseFailed && !stopped && trackNumber > readingTrack)
+                callback.onSessionError(this, "No track " + trackNumber + ", the file has " + (readingTrack + 1));
+
+            if (track.getFirst() > 0) {
+                Log.d(LOG, "Track too long to hold, not cached");
+            } else if (!parseFailed && !stopped && !track.isEmpty()) {
+                store(trackCache, source, trackNumber, track);
+            }
+
+            if (otherTracks != null && !parseFailed && !stopped) {
+                for (int i = 0; i < otherTracks.size(); i++) {
+                    TrackBuffer other = otherTracks.get(i);
+                    if (other != null && !other.isEmpty())
+                        store(trackCache, source, i, other);
+                }
+            }
+            otherTracks = null;
+        }
+
+        // The cache keeps the track as recorded
+        if (simplifyMeters > 0 && !stopped) {
+            int count = track.size();
+            int removed = TrackSimplifier.simplify(track, simplifyMeters);
+            Log.i(LOG, "Session " + id + " simplified away " + removed + " of " + count + " points");
+
+            // Nothing has been queued yet, and the indexes have moved
+            played = 0;
+            next = 0;
+        }
+
+        readDone = true;
+        if (!track.isEmpty())
+            lastGpsTime = track.getTime(track.size() - 1);
+        if (reverseLap)
+            next = track.size() - 1;
+
+        if (!stopped)
+            feeder.add(this);
+    }
+
+    private static long firstTime(TrackBuffer points) {
+        for (int i = 0; i < points.size(); i++) {
+            if (points.getTime(i) != 0)
+                return points.getTime(i);
+        }
+        return 0;
+    }
+
+    private synchronized void registerStreams() {
+        if (stopped)
+            return;
+        if (producer == null)
+            producer = queue.newProducer();
+        for (int i = 0; i < profiles.length; i++) {
+            streams[i] = queue.register(new SendLocationWorker(sink, locationPool, this, track, profiles[i], false));
+            if (mode == PlaybackMode.reverse || mode == PlaybackMode.pingpong)
+                reverseStreams[i] = queue.register(new SendLocationWorker(sink, locationPool, this, track,
+                        profiles[i], true));
+        }
+    }
+
+    // Guarded by this
+    private void unregisterStreams() {
+        for (int i = 0; i < streams.length; i++) {
+            if (streams[i] >= 0)
+                queue.unregister(streams[i]);
+            if (reverseStreams[i] >= 0)
+                queue.unregister(reverseStreams[i]);
+            streams[i] = -1;
+            reverseStreams[i] = -1;
+        }
+    }
+
+    /**
+     * Queues the points read so far that are within the lookahead window,
+     * applying seeks and moving on to further laps, without waiting. Called
+     * from the reading thread, then from the feeder's.
+     *
+     * @return the playback position at which the next point enters the
+     *         window, or IDLE if there is none
+     */
+    long feed() {
+        try {
+            while (!stopped) {
+                if (awaitingWholeTrack())
+                    return IDLE;
+
+                if (pendingSeek != NO_SEEK)
+                    applySeek();
+
+                boolean lapDone = reverseLap ? next < 0 : next >= track.size();
+                if (lapDone) {
+                    if (!readDone || !nextLap())
+                        return IDLE;
+                } else if (!reverseLap && track.getTime(next) < skipBefore) {
+                    // Before the position sought to
+                    next++;
+                } else {
+                    long due = trackTimeOf(next) - LOOKAHEAD_MILLIS;
+                    if (queue.getPlaybackPosition() < due)
+                        return due;
+                    queuePoint(reverseLap ? next-- : next++);
+                }
+            }
+            return IDLE;
+        } finally {
+            releasePlayed();
+        }
+    }
+
+    /**
+     * Moves on to the next lap, which starts where the one just queued ends
+     * plus the seam gap. The track is replayed as it is in memory, nothing is
+     * allocated.
+     *
+     * @return false if the mode has no further laps
+     */
+    private boolean nextLap() {
+        // An untimed track has no end to start the next lap from
+        if (!mode.repeats() || firstGpsTime == 0 || lastGpsTime <= firstGpsTime)
+            return false;
+
+        origin += lastGpsTime - firstGpsTime + seamMillis;
+        lap++;
+        reverseLap = mode.isReverse(lap);
+        next = reverseLap ? track.size() - 1 : 0;
+        skipBefore = 0;
+
+        Log.d(LOG, "Session " + id + " starting lap " + lap + (reverseLap ? " backwards" : ""));
+        return true;
+    }
+
+    private synchronized void applySeek() {
+        long target = pendingSeek;
+        pendingSeek = NO_SEEK;
+
+        registerStreams();
+        Arrays.fill(lastQueued, -1);
+
+        if (firstGpsTime == 0) {
+            Log.e(LOG, "Session " + id + " has no timed points to seek in yet");
+            return;
+        }
+
+        // The sought point plays now
+        origin = queue.getPlaybackPosition() - target;
+
+        int first = track.getFirst();
+        if (reverseLap) {
+            // The last point at or before the time
+            next = track.indexOfTime(lastGpsTime - target + 1, first, track.size()) - 1;
+            Log.d(LOG, "Session " + id + " seeking to " + target + "ms, point " + next);
+            return;
+        }
+
+        skipBefore = firstGpsTime + target;
+        next = track.indexOfTime(skipBefore, first, track.size());
+        played = Math.min(played, next);
+
+        if (next == first && first > 0 && track.getTime(first) > skipBefore)
+            Log.e(LOG, "Session " + id + " can not seek back past the released points");
+        Log.d(LOG, "Session " + id + " seeking to " + target + "ms, point " + next);
+    }
+
+    private void store(TrackCache trackCache, File source, int number, TrackBuffer points) {
+        try {
+            trackCache.store(source, number, points);
+        } catch (IOException e) {
+            Log.e(LOG, "Unable to cache track:" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onGpxError(String message) {
+        parseFailed = true;
+        // The parse was abandoned, see StoppedException
+        if (stopped)
+            return;
+        callback.onSessionError(this, message);
+    }
+
+    @Override
+    public void onGpxPoint(GpxTrackPoint item) {
+        // The rest of the file would only be read into memory
+        if (stopped)
+            throw new StoppedException();
+
+        if (trackNumber != TrackCache.ALL_TRACKS && readingTrack != trackNumber) {
+            holdOther(item);
+            return;
+        }
+
+        if (item.getTime() == 0)
+            item.setTime(nextUntimed(track));
+
+        // Recorded speed and course are used as they are, the rest is computed
+        int index = track.addWithMotion(item);
+
+        if (firstGpsTime == 0)
+            firstGpsTime = track.getTime(index);
+
+        long due;
+        while ((due = feed()) != IDLE && waitForPlayback(due)) {
+            // Queue what playback has made room for
+        }
+    }
+
+    private void holdOther(GpxTrackPoint item) {
+        if (otherTracks == null || readingTrack < 0)
+            return;
+
+        TrackBuffer other = otherTracks.get(readingTrack);
+        if (item.getTime() == 0)
+            item.setTime(nextUntimed(other));
+        other.addWithMotion(item);
+        if (++otherPoints > MAX_HELD_POINTS) {
+            Log.d(LOG, "Other tracks too long to hold, not cached");
+            otherTracks = null;
+        }
+    }
+
+    /**
+     * @return a time for a point read without one, following the last point
+     */
+    private static long nextUntimed(TrackBuffer points) {
+        int last = points.size() - 1;
+        long previous = last >= 0 ? points.getTime(last) : 0;
+        return previous + UNTIMED_INTERVAL_MILLIS;
+    }
+
+    @Override
+    public void onGpxTrack(int number, boolean route) {
+        readingTrack = number;
+        if (otherTracks != null)
+            otherTracks.add(number == trackNumber ? null : new TrackBuffer());
+    }
+
+    @Override
+    public void onGpxSegment(int number, int segment) {
+        // Segments of a track are played back to back
+    }
+
+    @Override
+    public void onGpxWaypoint(GpxTrackPoint point) {
+        // Waypoints are not part of a track
+    }
+
+    private void queuePoint(int index) {
+
+        long gpsPointTime = track.getTime(index);
+        long trackTime = trackTimeOf(index);
+
+        if (!stopped && pendingSeek == NO_SEEK) {
+            if (trackTime >= origin) {
+                Log.d(LOG, "Session " + id + " sending Point at track time:" + trackTime + "ms");
+
+                // Every provider is fed from the same point, at its own rate
+                for (int i = 0; i < profiles.length; i++) {
+                    ProviderProfile profile = profiles[i];
+
+                    long interval = profile.getIntervalMillis();
+                    if (interval > 0 && lastQueued[i] >= 0 && trackTime - lastQueued[i] < interval)
+                        continue;
+                    lastQueued[i] = trackTime;
+
+                    // Dropped by the queue if stopped meanwhile
+                    int stream = reverseLap ? reverseStreams[i] : streams[i];
+                    if (stream >= 0)
+                        producer.schedule(stream, index, trackTime + profile.getLatencyMillis());
+                }
+            } else {
+                Log.e(LOG, "Invalid Time at Point:" + gpsPointTime + " track time:" + trackTime);
+            }
+        }
+
+    }
+
+    /**
+     * Blocks the reading thread until playback reaches the track time or a
+     * seek comes in.
+     *
+     * @return false if the session was stopped
+     */
+    private boolean waitForPlayback(long trackTime) {
+        long started = System.nanoTime();
+        try {
+            while (true) {
+                long wakeCount = queue.getWakeCount();
+                if (stopped || pendingSeek != NO_SEEK
+                        || queue.awaitPlaybackPosition(trackTime, STOP_CHECK_MILLIS, wakeCount))
+                    break;
+            }
+        } catch (InterruptedException e) {
+            // The read task was cancelled
+            Thread.currentThread().interrupt();
+            stop();
+        }
+        waitedNanos += System.nanoTime() - started;
+        return !stopped;
+    }
+
+    /**
+     * Playing backwards and simplifying need the whole track, nothing is
+     * queued or released until it has been read.
+     */
+    private boolean awaitingWholeTrack() {
+        return !readDone && (reverseLap || simplifyMeters > 0);
+    }
+
+    /**
+     * Moves past the points every profile has played, releasing them when
+     * the track is played once.
+     */
+    private void releasePlayed() {
+        if (awaitingWholeTrack())
+            return;
+
+        // Fixes of a point are sent until the next point's time, plus latency
+        long position = queue.getPlaybackPosition() - LOOKAHEAD_MILLIS - maxLatency;
+        int size = track.size();
+        while (played + 1 < size && track.getTime(played + 1) != 0
+                && trackTimeOf(played + 1) < position) {
+            played++;
+        }
+        // Later laps replay the whole track
+        if (mode == PlaybackMode.once)
+            track.release(Math.min(played, size - MAX_HELD_POINTS));
+    }
+
+    private long trackTimeOf(int index) {
+        if (reverseLap)
+            return origin + lastGpsTime - track.getTime(index);
+        return origin + track.getTime(index) - firstGpsTime;
+    }
+
+    @Override
+    public void onGpxStart() {
+        // Start Parsing
+    }
+
+    @Override
+    public void onGpxEnd() {
+        // End Parsing
+    }
+
+}
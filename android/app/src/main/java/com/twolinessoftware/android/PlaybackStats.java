@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A reading of {@link PlaybackMetrics}, returned by
+ * IPlaybackService.getStats(). Times are in microseconds unless the name
+ * says otherwise; lateness and jitter only cover timestamped playback.
+ */
+public class PlaybackStats implements Parcelable {
+
+    long fixesSent;
+    long fixesDropped;
+    long fixesLate;
+
+    long latenessCount;
+    long latenessMeanMicros;
+    long latenessP50Micros;
+    long latenessP90Micros;
+    long latenessP99Micros;
+    long latenessMaxMicros;
+
+    long jitterP50Micros;
+    long jitterP99Micros;
+    long jitterMaxMicros;
+
+    long parses;
+    long parseMillis;
+    long lastParseMillis;
+    long parsedPoints;
+
+    public static final Parcelable.Creator<PlaybackStats> CREATOR = new Parcelable.Creator<PlaybackStats>() {
+
+        @Override
+        public PlaybackStats createFromParcel(Parcel in) {
+            PlaybackStats stats = new PlaybackStats();
+            stats.fixesSent = in.readLong();
+            stats.fixesDropped = in.readLong();
+            stats.fixesLate = in.readLong();
+            stats.latenessCount = in.readLong();
+            stats.latenessMeanMicros = in.readLong();
+            stats.latenessP50Micros = in.readLong();
+            stats.latenessP90Micros = in.readLong();
+            stats.latenessP99Micros = in.readLong();
+            stats.latenessMaxMicros = in.readLong();
+            stats.jitterP50Micros = in.readLong();
+            stats.jitterP99Micros = in.readLong();
+            stats.jitterMaxMicros = in.readLong();
+            stats.parses = in.readLong();
+            stats.parseMillis = in.readLong();
+            stats.lastParseMillis = in.readLong();
+            stats.parsedPoints = in.readLong();
+            return stats;
+        }
+
+        @Override
+        public PlaybackStats[] newArray(int size) {
+            return new PlaybackStats[size];
+        }
+    };
+
+    PlaybackStats() {
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeLong(fixesSent);
+        out.writeLong(fixesDropped);
+        out.writeLong(fixesLate);
+        out.writeLong(latenessCount);
+        out.writeLong(latenessMeanMicros);
+        out.writeLong(latenessP50Micros);
+        out.writeLong(latenessP90Micros);
+        out.writeLong(latenessP99Micros);
+        out.writeLong(latenessMaxMicros);
+        out.writeLong(jitterP50Micros);
+        out.writeLong(jitterP99Micros);
+        out.writeLong(jitterMaxMicros);
+        out.writeLong(parses);
+        out.writeLong(parseMillis);
+        out.writeLong(lastParseMillis);
+        out.writeLong(parsedPoints);
+    }
+
+    public long getFixesSent() {
+        return fixesSent;
+    }
+
+    /**
+     * @return fixes scheduled but not sent, because their session or the
+     *         service stopped first
+     */
+    public long getFixesDropped() {
+        return fixesDropped;
+    }
+
+    /**
+     * @return timestamped fixes sent more than 50ms after their time
+     */
+    public long getFixesLate() {
+        return fixesLate;
+    }
+
+    public long getLatenessCount() {
+        return latenessCount;
+    }
+
+    public long getLatenessMeanMicros() {
+        return latenessMeanMicros;
+    }
+
+    public long getLatenessP50Micros() {
+        return latenessP50Micros;
+    }
+
+    public long getLatenessP90Micros() {
+        return latenessP90Micros;
+    }
+
+    public long getLatenessP99Micros() {
+        return latenessP99Micros;
+    }
+
+    public long getLatenessMaxMicros() {
+        return latenessMaxMicros;
+    }
+
+    public long getJitterP50Micros() {
+        return jitterP50Micros;
+    }
+
+    public long getJitterP99Micros() {
+        return jitterP99Micros;
+    }
+
+    public long getJitterMaxMicros() {
+        return jitterMaxMicros;
+    }
+
+    /**
+     * @return files read so far, not counting tracks from the cache
+     */
+    public long getParses() {
+        return parses;
+    }
+
+    public long getParseMillis() {
+        return parseMillis;
+    }
+
+    public long getLastParseMillis() {
+        return lastParseMillis;
+    }
+
+    public long getParsedPoints() {
+        return parsedPoints;
+    }
+
+    @Override
+    public String toString() {
+        return "sent:" + fixesSent + " dropped:" + fixesDropped + " late:" + fixesLate
+                + " lateness p50:" + latenessP50Micros + "us p99:" + latenessP99Micros + "us max:" + latenessMaxMicros
+                + "us jitter p99:" + jitterP99Micros + "us parsed:" + parsedPoints + " points in " + parseMillis + "ms";
+    }
+
+}
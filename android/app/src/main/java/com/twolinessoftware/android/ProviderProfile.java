@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import android.location.LocationManager;
+
+/**
+ * How one test provider plays a track: the minimum track time between its
+ * fixes, how much worse its accuracy is than the recording, and how late its
+ * fixes are delivered. Several profiles share the decoded track and the
+ * scheduler thread.
+ */
+public class ProviderProfile {
+
+	private final String name;
+	private final long intervalMillis;
+	private final float accuracyScale;
+	private final long latencyMillis;
+
+	/**
+	 * @param intervalMillis
+	 *            minimum track milliseconds between fixes, 0 for every fix
+	 * @param accuracyScale
+	 *            multiplies the accuracy of the recorded fix
+	 * @param latencyMillis
+	 *            delay between the time of a fix and its delivery
+	 */
+	public ProviderProfile(String name, long intervalMillis,
+			float accuracyScale, long latencyMillis) {
+		if (intervalMillis < 0 || latencyMillis < 0 || !(accuracyScale > 0))
+			throw new IllegalArgumentException("Invalid profile for " + name);
+		this.name = name;
+		this.intervalMillis = intervalMillis;
+		this.accuracyScale = accuracyScale;
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @return the usual behaviour of the named provider: network fixes are
+	 *         sparse, coarse and late, anything else plays the track as is
+	 */
+	public static ProviderProfile defaults(String name) {
+		if (LocationManager.NETWORK_PROVIDER.equals(name))
+			return new ProviderProfile(name, 10000, 20.0f, 1000);
+		return new ProviderProfile(name, 0, 1.0f, 0);
+	}
+
+	/**
+	 * Parses name[:intervalMillis[:accuracyScale[:latencyMillis]]], e.g.
+	 * "gps" or "network:5000:10:500". Omitted values take the defaults for
+	 * the provider.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the spec is malformed
+	 */
+	public static ProviderProfile parse(String spec) {
+		String[] parts = spec.trim().split(":");
+		String name = parts[0].trim();
+		if (name.length() == 0 || parts.length > 4)
+			throw new IllegalArgumentException("Invalid provider:" + spec);
+
+		ProviderProfile defaults = defaults(name);
+		try {
+			long interval = parts.length > 1 ? Long.parseLong(parts[1].trim())
+					: defaults.intervalMillis;
+			float accuracy = parts.length > 2 ? Float.parseFloat(parts[2]
+					.trim()) : defaults.accuracyScale;
+			long latency = parts.length > 3 ? Long.parseLong(parts[3].trim())
+					: defaults.latencyMillis;
+			return new ProviderProfile(name, interval, accuracy, latency);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid provider:" + spec);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public float getAccuracyScale() {
+		return accuracyScale;
+	}
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+}
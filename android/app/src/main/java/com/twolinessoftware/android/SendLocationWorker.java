@@ -16,85 +16,158 @@
 package com.twolinessoftware.android;
 
 import android.location.Location;
-import android.location.LocationManager;
 import android.util.Log;
 
-import com.twolinessoftware.android.framework.service.comms.Worker;
 import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackInterpolator;
 
-import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+/**
+ * Sends the fixes of one stream, i.e. one provider of a session, to the
+ * location manager. The queue only holds point indexes and offsets, this
+ * turns them into locations when they are due.
+ *
+ * A reverse stream plays the track backwards: offsets run from a point
+ * towards the one before it, and headings are turned around.
+ */
+public class SendLocationWorker {
+
+	// Typical user equivalent range error, turns hdop into meters
+	private static final float UERE_METERS = 5.0f;
+
+	// Used when the track does not record hdop
+	private static final float DEFAULT_ACCURACY = 1.0f;
 
-public class SendLocationWorker extends Worker {
+	private static final String LOG = "SendLocation";
 
-	private GpxTrackPoint point;
-	private String providerName;
-	private LocationManager mLocationManager;
+	static final long NO_LATENESS = Long.MIN_VALUE;
 
-	private long sendTime;
+	private TrackBuffer track;
+	private ProviderProfile profile;
+	private LocationSink sink;
+	private LocationPool locationPool;
+	private PlaybackSession session;
+	private boolean reverse;
 
-	public long getSendTime() {
-		return sendTime;
+	private GpxTrackPoint fix;
+
+	// Nanoseconds the previous fix was sent late, for the jitter between
+	// fixes of the stream. Queue thread only
+	long lastLateness = NO_LATENESS;
+
+	public SendLocationWorker(LocationSink sink,
+			LocationPool locationPool, PlaybackSession session,
+			TrackBuffer track, ProviderProfile profile, boolean reverse) {
+		this.reverse = reverse;
+		this.locationPool = locationPool;
+		this.session = session;
+		this.track = track;
+		this.profile = profile;
+		this.sink = sink;
 	}
 
-	public void setSendTime(long sendTime) {
-		this.sendTime = sendTime;
+	/**
+	 * Finds the next interpolated fix between a track point and the following
+	 * one. Fixes are generated one at a time, so nothing is materialized up
+	 * front whatever the rate.
+	 *
+	 * @param offset
+	 *            track milliseconds past the point of the fix just sent
+	 * @param interval
+	 *            track milliseconds between fixes, 0 when not interpolating;
+	 *            never shorter than the provider's own interval
+	 * @return the offset of the next fix, or -1 if the segment is done
+	 */
+	int nextOffset(int index, int offset, long interval) {
+		int next = reverse ? index - 1 : index + 1;
+		if (interval <= 0 || next < 0 || next >= track.size() || session.isStopped())
+			return -1;
+
+		interval = Math.max(interval, profile.getIntervalMillis());
+
+		long start = track.getTime(index);
+		long end = track.getTime(next);
+		if (start == 0 || end == 0 || offset + interval >= Math.abs(end - start))
+			return -1;
+
+		return (int) (offset + interval);
 	}
 
-	public SendLocationWorker(LocationManager mLocationManager,
-			GpxTrackPoint point, String providerName, long localSendTime) {
-		super();
-		this.point = point;
-		this.providerName = providerName;
-		this.mLocationManager = mLocationManager;
-		this.sendTime = localSendTime;
+	PlaybackSession getSession() {
+		return session;
 	}
 
-	@Override
-	public void run() {
-		sendLocation(point);
+	/**
+	 * @param offset
+	 *            track milliseconds past the point, 0 for the point itself
+	 * @return false if the session was stopped and nothing was sent
+	 */
+	boolean send(int index, int offset) {
+		// The session may have been stopped while this was being polled
+		if (session.isStopped())
+			return false;
+		sendLocation(index, offset);
+		return true;
 	}
 
-	private void sendLocation(GpxTrackPoint point) {
+	private void sendLocation(int index, int offset) {
+
+		String providerName = profile.getName();
+		Location loc = locationPool.obtain(providerName);
+
+		float hdop;
+		if (offset == 0) {
+			loc.setLatitude(track.getLat(index));
+			loc.setLongitude(track.getLon(index));
+			loc.setAltitude(track.getEle(index));
+			loc.setBearing(heading(track.getBearing(index)));
+			loc.setSpeed(track.getSpeed(index));
+			hdop = track.getHdop(index);
+		} else {
+			if (fix == null)
+				fix = new GpxTrackPoint();
+			if (reverse) {
+				// The segment from the previous point, walked from its end
+				double fraction = (double) offset
+						/ (track.getTime(index) - track.getTime(index - 1));
+				TrackInterpolator.interpolate(track, index - 1, 1 - fraction, fix);
+			} else {
+				double fraction = (double) offset
+						/ (track.getTime(index + 1) - track.getTime(index));
+				TrackInterpolator.interpolate(track, index, fraction, fix);
+			}
 
-		Location loc = new Location(providerName);
-		loc.setLatitude(point.getLat());
-		loc.setLongitude(point.getLon());
+			loc.setLatitude(fix.getLat());
+			loc.setLongitude(fix.getLon());
+			loc.setAltitude(fix.getEle());
+			loc.setBearing(heading((float) fix.getHeading()));
+			loc.setSpeed((float) fix.getSpeed());
+			hdop = fix.getHdop();
+		}
 
-		loc.setTime(System.currentTimeMillis());
+		float accuracy = Float.isNaN(hdop) ? DEFAULT_ACCURACY : hdop * UERE_METERS;
+		loc.setAccuracy(accuracy * profile.getAccuracyScale());
 
-        loc.setBearing((float) point.getHeading());
-        loc.setAccuracy(1.0f);
-        loc.setSpeed((float) point.getSpeed());
-        loc.setAltitude(100.0);
+		// Delivered late, so the fix is as old as the latency
+		LocationPool.makeComplete(loc, profile.getLatencyMillis());
 
+		if (Log.isLoggable(LOG, Log.DEBUG))
+			Log.d(LOG, "Sending update for " + providerName);
 
-		// bk added
-		Method method;
 		try {
-			method = Location.class.getMethod("makeComplete", new Class[0]);
-			if (method != null)
-			{
-				try
-				{
-					method.invoke(loc, new Object[0]);
-				}
-				catch (Exception exception) { }
-			}
-		} catch (NoSuchMethodException e) {
-			e.printStackTrace();
+			sink.setTestProviderLocation(providerName, loc);
+		} finally {
+			locationPool.recycle(loc);
 		}
+	}
 
-
-		Log.d("SendLocation", "Sending update for " + providerName);
-		mLocationManager.setTestProviderLocation(providerName, loc);
-
-
-
+	/**
+	 * @return the bearing of a segment as travelled by this stream
+	 */
+	private float heading(float bearing) {
+		if (!reverse)
+			return bearing;
+		return bearing >= 180 ? bearing - 180 : bearing + 180;
 	}
 
 }
@@ -15,91 +15,658 @@
  */
 package com.twolinessoftware.android;
 
+import android.util.Log;
+
+import com.twolinessoftware.android.framework.track.PlaybackClock;
+import com.twolinessoftware.android.framework.util.FixRing;
 import com.twolinessoftware.android.framework.util.Logger;
+import com.twolinessoftware.android.framework.util.TimerWheel;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Sends scheduled fixes in track time order on a single thread. The thread
+ * sleeps until the next fix is due and is woken early when work is added or
+ * the queue is stopped, so an idle queue costs nothing.
+ *
+ * Each provider of each session is a stream, registered once with its
+ * {@link SendLocationWorker}. A pending fix is only a stream, a point index,
+ * an offset and a track time in a {@link TimerWheel}, so many streams with
+ * long tracks queued ahead cost a few ints per fix and no objects. All fixes
+ * due in a tick are taken off the wheel together and sent in one batch.
+ *
+ * Sessions hand fixes over through a {@link Producer}, a lock-free ring per
+ * session that the queue thread drains into the wheel, so parsing never
+ * contends with sending for the lock.
+ *
+ * In MODE_FIXED_INTERVAL the fixes pending for the earliest track time are
+ * sent together, a fixed delay after the previous send. Every provider
+ * playing a point gets its fix of it in the same send, so the delay is per
+ * point and adding providers does not slow the track down; sessions take
+ * turns. In MODE_TIMESTAMPS fixes are due when the playback clock reaches their
+ * track time, which follows the GPX timestamps. In both modes the delays are
+ * scaled by the playback rate and nothing is sent while paused.
+ *
+ * With an interpolation interval set, a sent fix schedules the next
+ * synthesized fix of its segment, so only one pending fix per track point is
+ * ever held.
+ *
+ * Every fix sent, dropped or late is counted in the {@link PlaybackMetrics}
+ * of the queue; the lateness of timestamped fixes is measured against the
+ * wall clock just before each one goes to the location manager.
+ */
 public class SendLocationWorkerQueue {
 
-    private LinkedList<SendLocationWorker> queue;
-    private boolean running;
+    public static final int MODE_FIXED_INTERVAL = 0;
+    public static final int MODE_TIMESTAMPS = 1;
+
+    private static final String LOG = SendLocationWorkerQueue.class.getSimpleName();
+
+    // Sleeping is only accurate to a few ms, so the last stretch before a
+    // timestamped send is spent yielding instead
+    private static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // Fixes a producer can get ahead of the queue thread
+    private static final int RING_CAPACITY = 1024;
+
+    // 10ms ticks, about 40s of track time per rotation
+    private static final long TICK_MILLIS = 10;
+    private static final int BUCKETS = 4096;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Signalled when fixes have been sent, for producers waiting on playback
+    private final Condition progressed = lock.newCondition();
+
+    // Counts wakeWaiters() calls. Written under lock
+    private volatile long wakeCount;
+
+    // Guarded by lock
+    private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, BUCKETS, 256);
+
+    // Indexed by stream id, null once unregistered. Ids are not reused, a
+    // fix still in a ring for a stream that is gone is dropped. Guarded by lock
+    private final ArrayList<SendLocationWorker> streams = new ArrayList<SendLocationWorker>();
+
+    private final PlaybackClock clock = new PlaybackClock();
+
+    private final PlaybackMetrics metrics;
+
+    // Track milliseconds between interpolated fixes, 0 when off. Guarded by lock
+    private long interpolationInterval;
+
+    // Track time of the latest fix sent. Written under lock
+    private volatile long sentTrackTime;
+
+    // Replaced under lock, iterated by the queue thread without allocating
+    private volatile Producer[] producers = new Producer[0];
+
+    // Set while the queue thread is about to wait or waiting
+    private volatile boolean sleeping;
+
+    private volatile int mode = MODE_FIXED_INTERVAL;
+
     private WorkerThread thread;
 
-    private Object lock = new Object();
+    public SendLocationWorkerQueue(PlaybackMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Feeds the queue from one thread at a time without taking its lock.
+     */
+    public class Producer {
+
+        private final FixRing ring = new FixRing(RING_CAPACITY);
+
+        private volatile boolean closed;
+
+        /**
+         * Schedules the fix of a track point, waiting while the ring is full.
+         *
+         * @param trackTime
+         *            when to send it, on the queue's clock
+         * @return false once closed
+         */
+        public boolean schedule(int stream, int index, long trackTime) {
+            while (!ring.offer(trackTime, stream, index)) {
+                if (closed)
+                    return false;
+                wakeUp();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            // Read after publishing the fix, see WorkerThread.await()
+            if (sleeping)
+                wakeUp();
+            return !closed;
+        }
+
+        /**
+         * Stops the queue draining this producer; fixes not drained yet are
+         * dropped. Safe to call from any thread.
+         */
+        public void close() {
+            closed = true;
+            lock.lock();
+            try {
+                ArrayList<Producer> remaining = new ArrayList<Producer>(Arrays.asList(producers));
+                remaining.remove(this);
+                producers = remaining.toArray(new Producer[remaining.size()]);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
 
-    public SendLocationWorkerQueue() {
-        queue = new LinkedList<SendLocationWorker>();
-        running = false;
+    /**
+     * @return a producer for one thread at a time, to be closed when done
+     */
+    public Producer newProducer() {
+        lock.lock();
+        try {
+            Producer producer = new Producer();
+            Producer[] added = Arrays.copyOf(producers, producers.length + 1);
+            added[producers.length] = producer;
+            producers = added;
+            return producer;
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * @return the stream id to schedule the worker's fixes with
+     */
+    public int register(SendLocationWorker worker) {
+        lock.lock();
+        try {
+            streams.add(worker);
+            return streams.size() - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-    public void addToQueue(SendLocationWorker worker) {
-        synchronized (queue) {
-            queue.addLast(worker);
+    /**
+     * Drops the pending fixes of a stream.
+     */
+    public void unregister(int stream) {
+        lock.lock();
+        try {
+            metrics.recordDropped(wheel.cancelStream(stream));
+            streams.set(stream, null);
+            changed.signal();
+        } finally {
+            lock.unlock();
         }
+    }
 
+    public void start(long delayTimeOnReplay) {
+        start(MODE_FIXED_INTERVAL, delayTimeOnReplay);
     }
 
-    public synchronized void start(long delayTimeOnReplay) {
-        running = true;
-        thread = new WorkerThread(delayTimeOnReplay);
-        thread.start();
+    public void start(int mode, long delayTimeOnReplay) {
+        lock.lock();
+        try {
+            stopThread();
+            this.mode = mode;
+            thread = new WorkerThread(mode, delayTimeOnReplay);
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void stop() {
-        /*
-		 * synchronized(lock){ lock.notify(); }
-		 */
-        running = false;
+    public void stop() {
+        lock.lock();
+        try {
+            if (thread != null)
+                thread.running = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Drops all pending fixes and streams and stops the thread. Safe to call
+     * from any thread.
+     */
     public void reset() {
-        stop();
-        queue = new LinkedList<SendLocationWorker>();
+        lock.lock();
+        try {
+            metrics.recordDropped(wheel.size());
+            wheel.clear();
+            for (int i = 0; i < streams.size(); i++) {
+                streams.set(i, null);
+            }
+            stopThread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restarts the playback clock at the given track time.
+     */
+    public void startClock(long trackTime) {
+        lock.lock();
+        try {
+            clock.start(trackTime);
+            wheel.reset(trackTime);
+            sentTrackTime = trackTime;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        stopThread();
+    /**
+     * @return the current position of playback on the track, in milliseconds
+     */
+    public long getTrackTime() {
+        return clock.trackTime();
+    }
+
+    /**
+     * @return how far playback has got on the track: the clock in
+     *         MODE_TIMESTAMPS, the latest fix sent in MODE_FIXED_INTERVAL
+     */
+    public long getPlaybackPosition() {
+        if (mode == MODE_TIMESTAMPS)
+            return clock.trackTime();
+        return sentTrackTime;
+    }
+
+    /**
+     * Blocks until playback reaches a track time, so that a producer does
+     * not run arbitrarily far ahead of it.
+     *
+     * @return true if the track time has been reached
+     */
+    public boolean awaitPlaybackPosition(long trackTime, long timeoutMillis) throws InterruptedException {
+        return awaitPlaybackPosition(trackTime, timeoutMillis, wakeCount);
+    }
+
+    /**
+     * Same, but also gives up once {@link #wakeWaiters()} has been called
+     * since {@link #getWakeCount()} returned wakeCount. Reading the count
+     * before checking for work means no wake up is missed.
+     */
+    public boolean awaitPlaybackPosition(long trackTime, long timeoutMillis, long wakeCount)
+            throws InterruptedException {
+        // Readers call this for every point, mostly without having to wait
+        if (getPlaybackPosition() >= trackTime)
+            return true;
+
+        lock.lock();
+        try {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (getPlaybackPosition() < trackTime) {
+                long wait = end - System.nanoTime();
+                if (wait <= 0 || this.wakeCount != wakeCount)
+                    return false;
+
+                // The clock gets there without any fix being sent
+                if (mode == MODE_TIMESTAMPS)
+                    wait = Math.min(wait, Math.max(1, clock.deadlineNanos(trackTime) - System.nanoTime()));
+
+                progressed.awaitNanos(wait);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWakeCount() {
+        return wakeCount;
+    }
+
+    /**
+     * Makes the threads waiting for playback give up, so that they notice a
+     * seek or a stop straight away.
+     */
+    public void wakeWaiters() {
+        lock.lock();
+        try {
+            wakeCount++;
+            progressed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the playback speed without touching the scheduled fixes; the
+     * pending schedule is stretched or compressed from the current position.
+     */
+    public void setPlaybackRate(float rate) {
+        lock.lock();
+        try {
+            clock.setRate(rate);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public float getPlaybackRate() {
+        return clock.getRate();
+    }
+
+    public void pause() {
+        lock.lock();
+        try {
+            clock.pause();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void resume() {
+        lock.lock();
+        try {
+            clock.resume();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param interval
+     *            track milliseconds between synthesized fixes, or 0 to send
+     *            the track points only
+     */
+    public void setInterpolationInterval(long interval) {
+        lock.lock();
+        try {
+            interpolationInterval = interval;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isPaused() {
+        return clock.isPaused();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return wheel.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void wakeUp() {
+        lock.lock();
+        try {
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void stopThread() {
-        if (thread != null) {
-            try {
-                thread.interrupt();
-            } catch (Exception e) {
-                Logger.i("SendLocationWorkerQueue.stopThread() - exception", "" + e.getMessage());
+        lock.lock();
+        try {
+            if (thread != null) {
+                thread.running = false;
+                changed.signalAll();
+                try {
+                    thread.interrupt();
+                } catch (Exception e) {
+                    Logger.i("SendLocationWorkerQueue.stopThread() - exception", "" + e.getMessage());
+                }
+                this.thread = null;
             }
-            this.thread = null;
+        } finally {
+            lock.unlock();
         }
     }
 
-    private class WorkerThread extends Thread {
+    private class WorkerThread extends Thread implements TimerWheel.Handler, FixRing.Handler {
+
+        private final int mode;
 
         private long TIME_BETWEEN_SENDS = 1000; // milliseconds
 
-        WorkerThread(long delayTimeOnReplay) {
+        // Guarded by lock
+        private boolean running = true;
+
+        // Fixes taken off the wheel for the current send
+        private int batchSize;
+        private long[] batchTimes = new long[16];
+        private long[] batchDeadlines = new long[16];
+        private int[] batchStreams = new int[16];
+        private int[] batchIndexes = new int[16];
+        private int[] batchOffsets = new int[16];
+        private SendLocationWorker[] batchWorkers = new SendLocationWorker[16];
+
+        // Timestamped fixes sent by this thread, for the report when it ends
+        private long sent;
+
+        WorkerThread(int mode, long delayTimeOnReplay) {
+            super("SendLocationWorkerQueue");
+            this.mode = mode;
             TIME_BETWEEN_SENDS = delayTimeOnReplay;
         }
 
         public void run() {
-            while (running) {
+            long lastSent = System.nanoTime();
+
+            lock.lock();
+            try {
+                while (running) {
+
+                    drainProducers();
 
-                if (queue.size() > 0) {
+                    if (wheel.isEmpty()) {
+                        await(Long.MAX_VALUE);
+                        continue;
+                    }
 
-                    SendLocationWorker worker = queue.pop();
+                    long due = 0;
+                    long deadline;
+                    if (mode == MODE_TIMESTAMPS) {
+                        due = wheel.nextTime();
+                        deadline = clock.deadlineNanos(due);
+                    } else if (clock.isPaused()) {
+                        deadline = Long.MAX_VALUE;
+                    } else {
+                        deadline = lastSent + TimeUnit.MILLISECONDS.toNanos(clock.scale(TIME_BETWEEN_SENDS));
+                    }
 
-                    synchronized (lock) {
-                        try {
-                            lock.wait(TIME_BETWEEN_SENDS);
+                    if (deadline == Long.MAX_VALUE) {
+                        // Paused until resume() signals
+                        await(Long.MAX_VALUE);
+                        continue;
+                    }
 
-                            Logger.i("SendLocationWorkerQueue.running - TIME_BETWEEN_SENDS : " + TIME_BETWEEN_SENDS, " - sent at time : " + System.currentTimeMillis());
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                    long wait = deadline - System.nanoTime();
+                    if (wait > 0) {
+                        if (mode == MODE_TIMESTAMPS && wait <= SPIN_NANOS) {
+                            lock.unlock();
+                            try {
+                                Thread.yield();
+                            } finally {
+                                lock.lock();
+                            }
+                        } else {
+                            // Woken early by new work or stop; re-check both
+                            await(mode == MODE_TIMESTAMPS ? wait - SPIN_NANOS : wait);
                         }
+                        continue;
+                    }
+
+                    batchSize = 0;
+                    if (mode == MODE_TIMESTAMPS) {
+                        // The clock rounds down, it may read just short of due
+                        wheel.expire(Math.max(due, clock.trackTime()), this);
+                    } else if (wheel.pollEarliest(this) && batchSize > 0) {
+                        // The other providers' fixes of the same point
+                        wheel.expire(batchTimes[0], this);
+                    }
+                    lastSent = System.nanoTime();
+
+                    if (mode == MODE_TIMESTAMPS) {
+                        for (int i = 0; i < batchSize; i++) {
+                            batchDeadlines[i] = clock.deadlineNanos(batchTimes[i]);
+                        }
+                    } else if (Log.isLoggable(LOG, Log.DEBUG)) {
+                        // Only built when asked for, sends must not allocate
+                        Log.d(LOG, "TIME_BETWEEN_SENDS : " + TIME_BETWEEN_SENDS + " - sent at time : " + System.currentTimeMillis());
+                    }
+
+                    lock.unlock();
+                    try {
+                        // Sending every fix in the current thread. Multiple threads NOT created.
+                        for (int i = 0; i < batchSize; i++) {
+                            send(i);
+                        }
+                    } finally {
+                        lock.lock();
+                    }
+
+                    if (batchSize > 0) {
+                        for (int i = 0; i < batchSize; i++) {
+                            sentTrackTime = Math.max(sentTrackTime, batchTimes[i]);
+                        }
+                        progressed.signalAll();
+                    }
+
+                    long interval = interpolationInterval;
+                    for (int i = 0; i < batchSize; i++) {
+                        SendLocationWorker worker = batchWorkers[i];
+                        batchWorkers[i] = null;
+
+                        // Skipped if the stream went away while sending
+                        if (!running || streams.get(batchStreams[i]) != worker)
+                            continue;
+                        int offset = batchOffsets[i];
+                        int nextOffset = worker.nextOffset(batchIndexes[i], offset, interval);
+                        if (nextOffset > offset)
+                            wheel.schedule(batchTimes[i] + nextOffset - offset, batchStreams[i], batchIndexes[i], nextOffset);
                     }
-                    // Executing each worker in the current thread. Multiple threads NOT created.
-                    worker.run();
                 }
+            } catch (InterruptedException e) {
+                // Stopped
+            } finally {
+                lock.unlock();
+                if (sent > 0)
+                    reportDrift();
+            }
+        }
+
+        /**
+         * Waits for a signal or the timeout, unless a producer has offered
+         * fixes meanwhile. A producer checks sleeping after publishing its
+         * fix, and this drains after setting it, so at least one of them
+         * sees the other: either the fix is drained here or the producer
+         * signals, which it can only do once this is waiting.
+         */
+        private void await(long nanos) throws InterruptedException {
+            sleeping = true;
+            try {
+                if (drainProducers())
+                    return;
+                if (nanos == Long.MAX_VALUE)
+                    changed.await();
+                else
+                    changed.awaitNanos(nanos);
+            } finally {
+                sleeping = false;
             }
         }
+
+        private boolean drainProducers() {
+            int drained = 0;
+            for (Producer producer : producers) {
+                drained += producer.ring.drain(this);
+            }
+            return drained > 0;
+        }
+
+        /**
+         * Sends one fix of the batch, outside the lock, and records it.
+         */
+        private void send(int i) {
+            SendLocationWorker worker = batchWorkers[i];
+            long lateness = System.nanoTime() - batchDeadlines[i];
+            if (!worker.send(batchIndexes[i], batchOffsets[i])) {
+                metrics.recordDropped(1);
+                return;
+            }
+            metrics.recordSent();
+            if (mode != MODE_TIMESTAMPS)
+                return;
+
+            metrics.recordLateness(lateness);
+            if (worker.lastLateness != SendLocationWorker.NO_LATENESS)
+                metrics.recordJitter(lateness - worker.lastLateness);
+            worker.lastLateness = lateness;
+            sent++;
+        }
+
+        @Override
+        public void onFix(long time, int stream, int index) {
+            // The stream may have been unregistered since
+            if (streams.get(stream) != null)
+                wheel.schedule(time, stream, index, 0);
+            else
+                metrics.recordDropped(1);
+        }
+
+        @Override
+        public void onExpired(long time, int stream, int index, int offset) {
+            SendLocationWorker worker = streams.get(stream);
+            if (worker == null) {
+                metrics.recordDropped(1);
+                return;
+            }
+
+            if (batchSize == batchTimes.length) {
+                int capacity = batchSize * 2;
+                batchTimes = Arrays.copyOf(batchTimes, capacity);
+                batchDeadlines = Arrays.copyOf(batchDeadlines, capacity);
+                batchStreams = Arrays.copyOf(batchStreams, capacity);
+                batchIndexes = Arrays.copyOf(batchIndexes, capacity);
+                batchOffsets = Arrays.copyOf(batchOffsets, capacity);
+                batchWorkers = Arrays.copyOf(batchWorkers, capacity);
+            }
+            batchTimes[batchSize] = time;
+            batchStreams[batchSize] = stream;
+            batchIndexes[batchSize] = index;
+            batchOffsets[batchSize] = offset;
+            batchWorkers[batchSize] = worker;
+            batchSize++;
+        }
+
+        /**
+         * Logs the metrics once the thread ends. While it runs they are read
+         * through the service's getStats(), sending neither logs nor allocates.
+         */
+        private void reportDrift() {
+            Logger.i(LOG, "Sent " + sent + " timestamped fixes, " + metrics.snapshot());
+        }
     }
 
 }
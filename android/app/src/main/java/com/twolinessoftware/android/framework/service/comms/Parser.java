@@ -15,6 +15,12 @@
  */
 package com.twolinessoftware.android.framework.service.comms;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -27,8 +33,34 @@ public abstract class Parser {
 
 	private static final String LOGNAME = "Framework.Parser";
 
+	protected static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
 	public abstract void parse(String xml);
 
+	/**
+	 * Parses the document directly from the stream. The caller owns the
+	 * stream and is responsible for closing it.
+	 */
+	public abstract void parse(InputStream in);
+
+	/**
+	 * Streams the file through {@link #parse(InputStream)} without reading it
+	 * into memory first.
+	 */
+	public void parse(File file) throws FileNotFoundException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file),
+				STREAM_BUFFER_SIZE);
+		try {
+			parse(in);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				Logger.e(LOGNAME, "Parser:Unable to close " + file);
+			}
+		}
+	}
+
 	protected XmlPullParser buildXmlParser(String xml)
 			throws XmlPullParserException {
 		XmlPullParser xpp = null;
@@ -40,6 +72,16 @@ public abstract class Parser {
 		return xpp;
 	}
 
+	protected XmlPullParser buildXmlParser(InputStream in)
+			throws XmlPullParserException {
+		XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+		XmlPullParser xpp = factory.newPullParser();
+		// Let the parser detect the encoding from the XML declaration
+		xpp.setInput(in, null);
+
+		return xpp;
+	}
+
 	protected String getNodesFromXml(String xml, String tag) {
 		String startTag = "<" + tag;
 		String endTag = "</" + tag + ">";
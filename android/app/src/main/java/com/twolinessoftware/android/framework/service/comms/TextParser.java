@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+
+/**
+ * Base for the line oriented formats. Lines are handed to {@link #line}
+ * straight out of the read buffer, without creating a String per line, and
+ * can be split into fields with {@link #split}. The whole file is one
+ * track of one segment, numbered 0, for a GpxStructureListener.
+ */
+public abstract class TextParser extends Parser {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	protected final GpxSaxParserListener listener;
+
+	private final GpxStructureListener structure;
+
+	private char[] buf = new char[BUFFER_SIZE];
+
+	protected TextParser(GpxSaxParserListener listener) {
+		this.listener = listener;
+		this.structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+	}
+
+	/**
+	 * Called for every line, without its line terminator.
+	 */
+	protected abstract void line(char[] buf, int start, int end);
+
+	/**
+	 * Called once the last line has been read.
+	 */
+	protected void end() {
+	}
+
+	@Override
+	public void parse(String text) {
+		parse(new StringReader(text));
+	}
+
+	@Override
+	public void parse(InputStream in) {
+		try {
+			parse(new InputStreamReader(in, "UTF-8"));
+		} catch (IOException e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	private void parse(Reader reader) {
+		try {
+			if (listener != null)
+				listener.onGpxStart();
+			if (structure != null) {
+				structure.onGpxTrack(0, false);
+				structure.onGpxSegment(0, 0);
+			}
+
+			int end = 0;
+			int read;
+			while ((read = reader.read(buf, end, buf.length - end)) != -1) {
+				end += read;
+
+				int lineStart = 0;
+				for (int i = 0; i < end; i++) {
+					char c = buf[i];
+					if (c == '\n' || c == '\r') {
+						if (i > lineStart)
+							line(buf, lineStart, i);
+						lineStart = i + 1;
+					}
+				}
+
+				// Keep the partial last line at the start of the buffer
+				int rest = end - lineStart;
+				if (rest == buf.length) {
+					char[] grown = new char[buf.length * 2];
+					System.arraycopy(buf, 0, grown, 0, rest);
+					buf = grown;
+				} else {
+					System.arraycopy(buf, lineStart, buf, 0, rest);
+				}
+				end = rest;
+			}
+			if (end > 0)
+				line(buf, 0, end);
+			end();
+
+			if (listener != null)
+				listener.onGpxEnd();
+
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	/**
+	 * Splits buf[start, end) at the delimiter.
+	 *
+	 * @param fields
+	 *            receives the start and end of field i at 2i and 2i + 1
+	 * @return the number of fields, at most fields.length / 2; the last one
+	 *         runs to the end of the line
+	 */
+	protected static int split(char[] buf, int start, int end, char delimiter,
+			int[] fields) {
+		int count = 0;
+		int fieldStart = start;
+		int max = fields.length / 2;
+		for (int i = start; i < end && count < max - 1; i++) {
+			if (buf[i] == delimiter) {
+				fields[2 * count] = fieldStart;
+				fields[2 * count + 1] = i;
+				count++;
+				fieldStart = i + 1;
+			}
+		}
+		fields[2 * count] = fieldStart;
+		fields[2 * count + 1] = end;
+		return count + 1;
+	}
+
+}
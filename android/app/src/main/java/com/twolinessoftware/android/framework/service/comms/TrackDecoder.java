@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+
+/**
+ * A track file format. Every decoder reports through GpxSaxParserListener,
+ * and through GpxStructureListener where the format has several tracks, so
+ * the session does not depend on the format it plays.
+ *
+ * @see TrackDecoders
+ */
+public interface TrackDecoder {
+
+	/**
+	 * @return short name of the format, e.g. "kml"
+	 */
+	String getName();
+
+	/**
+	 * @param head
+	 *            the start of the document, after decompression, one char
+	 *            per byte
+	 * @return whether the document looks like this format
+	 */
+	boolean sniff(String head);
+
+	Parser newParser(GpxSaxParserListener listener);
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.twolinessoftware.android.framework.service.comms.csv.CsvParser;
+import com.twolinessoftware.android.framework.service.comms.geojson.GeoJsonParser;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.kml.KmlParser;
+import com.twolinessoftware.android.framework.service.comms.nmea.NmeaParser;
+import com.twolinessoftware.android.framework.service.comms.tcx.TcxParser;
+import com.twolinessoftware.android.framework.util.Logger;
+import com.twolinessoftware.android.framework.util.ReadAheadInputStream;
+
+/**
+ * Registry of track formats. The format of a document is found from its
+ * first HEAD_SIZE bytes rather than from the file name, trying the decoders
+ * in the order they were registered.
+ *
+ * gzip streams and zip archives such as .kmz or .gpx.gz are recognized by
+ * their magic bytes and decompressed while they are parsed, on multi-core
+ * devices on a separate thread through a bounded buffer so that the two
+ * overlap. Nothing is written to
+ * disk. Of an archive the first entry a decoder recognizes is read, for a
+ * .kmz its doc.kml.
+ */
+public class TrackDecoders {
+
+	private static final String LOGNAME = "Framework.TrackDecoders";
+
+	static final int HEAD_SIZE = 1024;
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	// Chunks of STREAM_BUFFER_SIZE decompressed ahead of the parser
+	private static final int READ_AHEAD_CHUNKS = 4;
+
+	private final List<TrackDecoder> decoders = new ArrayList<TrackDecoder>();
+
+	// With a single core the thread only adds copying and switching
+	private boolean readAhead = Runtime.getRuntime().availableProcessors() > 1;
+
+	/**
+	 * @param gpx
+	 *            parser used for GPX documents
+	 * @return a registry for GPX, KML, TCX, GeoJSON, NMEA 0183 and CSV
+	 */
+	public static TrackDecoders defaults(GpxParserType gpx) {
+		TrackDecoders decoders = new TrackDecoders();
+		decoders.register(gpx);
+		decoders.register(KmlParser.DECODER);
+		decoders.register(TcxParser.DECODER);
+		decoders.register(GeoJsonParser.DECODER);
+		decoders.register(NmeaParser.DECODER);
+		// Last, a header line with lat and lon columns is the weakest sign
+		decoders.register(CsvParser.DECODER);
+		return decoders;
+	}
+
+	public void register(TrackDecoder decoder) {
+		decoders.add(decoder);
+	}
+
+	/**
+	 * Whether compressed input is decompressed on a thread of its own while
+	 * it is parsed, or on the parsing thread. Defaults to a thread of its own
+	 * on multi-core devices.
+	 */
+	public void setReadAhead(boolean readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * @return the decoder for the start of a document, or null if none
+	 *         recognizes it
+	 */
+	public TrackDecoder find(String head) {
+		for (TrackDecoder decoder : decoders) {
+			if (decoder.sniff(head))
+				return decoder;
+		}
+		return null;
+	}
+
+	/**
+	 * Streams the file through the decoder for its format. Errors, including
+	 * an unknown format, are reported to the listener.
+	 */
+	public void decode(File file, GpxSaxParserListener listener)
+			throws FileNotFoundException {
+		InputStream in = new FileInputStream(file);
+		try {
+			decode(in, listener);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				Logger.e(LOGNAME, "Unable to close " + file);
+			}
+		}
+	}
+
+	/**
+	 * As {@link #decode(File, GpxSaxParserListener)}. The caller owns the
+	 * stream and is responsible for closing it.
+	 */
+	public void decode(InputStream in, GpxSaxParserListener listener) {
+		try {
+			InputStream data = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+			byte[] head = new byte[HEAD_SIZE];
+			int length = peek(data, head);
+
+			if (isGzip(head, length)) {
+				if (!inflate(new GZIPInputStream(data, STREAM_BUFFER_SIZE),
+						head, listener))
+					listener.onGpxError("Unknown track format");
+			} else if (isZip(head, length)) {
+				ZipInputStream zip = new ZipInputStream(data);
+				ZipEntry entry;
+				while ((entry = zip.getNextEntry()) != null) {
+					if (!entry.isDirectory() && inflate(zip, head, listener))
+						return;
+				}
+				listener.onGpxError("No track in the archive");
+			} else if (!parse(data, head, length, listener)) {
+				listener.onGpxError("Unknown track format");
+			}
+
+		} catch (IOException e) {
+			listener.onGpxError(e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses decompressed data, which unless disabled is decompressed on a
+	 * separate thread at most READ_AHEAD_CHUNKS ahead of the parser.
+	 *
+	 * @return false if no decoder recognizes the data
+	 */
+	private boolean inflate(InputStream inflater, byte[] head,
+			GpxSaxParserListener listener) throws IOException {
+		InputStream source = inflater;
+		if (readAhead)
+			source = new ReadAheadInputStream(inflater, STREAM_BUFFER_SIZE,
+					READ_AHEAD_CHUNKS, "Inflater");
+		try {
+			InputStream data = new BufferedInputStream(source,
+					STREAM_BUFFER_SIZE);
+			return parse(data, head, peek(data, head), listener);
+		} finally {
+			if (source != inflater)
+				source.close();
+		}
+	}
+
+	private boolean parse(InputStream data, byte[] head, int length,
+			GpxSaxParserListener listener) {
+		TrackDecoder decoder = find(text(head, length));
+		if (decoder == null)
+			return false;
+
+		decoder.newParser(listener).parse(data);
+		return true;
+	}
+
+	/**
+	 * Reads the start of the stream and rewinds it.
+	 *
+	 * @return the number of bytes read into head
+	 */
+	private static int peek(InputStream in, byte[] head) throws IOException {
+		in.mark(head.length);
+		int length = 0;
+		int read;
+		while (length < head.length
+				&& (read = in.read(head, length, head.length - length)) != -1) {
+			length += read;
+		}
+		in.reset();
+		return length;
+	}
+
+	private static boolean isGzip(byte[] head, int length) {
+		return length >= 2 && (head[0] & 0xff) == 0x1f
+				&& (head[1] & 0xff) == 0x8b;
+	}
+
+	private static boolean isZip(byte[] head, int length) {
+		return length >= 4 && head[0] == 'P' && head[1] == 'K'
+				&& head[2] == 3 && head[3] == 4;
+	}
+
+	private static String text(byte[] head, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char) (head[i] & 0xff);
+		return new String(chars);
+	}
+
+}
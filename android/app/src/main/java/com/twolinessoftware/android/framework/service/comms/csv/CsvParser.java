@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.csv;
+
+import java.util.Locale;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TextParser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * Reads delimited text with a header line naming the columns, e.g.
+ *
+ * <pre>
+ * time,lat,lon,ele
+ * 2009-05-09T19:26:23Z,51.0519,-114.0863,1048
+ * </pre>
+ *
+ * Commas, semicolons and tabs are recognized as delimiters. Columns are
+ * matched by name, see {@link #column}; lat and lon are required, the others
+ * are used when present. Times are ISO-8601 or seconds or milliseconds since
+ * the epoch, speed is in m/s. Lines that do not parse are skipped.
+ *
+ * The point is reused as in GpxPullParser.
+ */
+public class CsvParser extends TextParser {
+
+	public static final TrackDecoder DECODER = new TrackDecoder() {
+
+		@Override
+		public String getName() {
+			return "csv";
+		}
+
+		@Override
+		public boolean sniff(String head) {
+			int end = head.indexOf('\n');
+			char[] line = (end < 0 ? head : head.substring(0, end))
+					.toCharArray();
+			return delimiter(line, 0, line.length) != 0;
+		}
+
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new CsvParser(listener);
+		}
+	};
+
+	private static final char[] DELIMITERS = { ',', ';', '\t' };
+
+	private static final int COLUMN_NONE = -1;
+	private static final int COLUMN_LAT = 0;
+	private static final int COLUMN_LON = 1;
+	private static final int COLUMN_ELE = 2;
+	private static final int COLUMN_TIME = 3;
+	private static final int COLUMN_SPEED = 4;
+	private static final int COLUMN_COURSE = 5;
+	private static final int COLUMN_HDOP = 6;
+
+	private static final int MAX_FIELDS = 64;
+
+	// Epoch times below this are taken as seconds, it is 1973 in millis
+	private static final double MAX_EPOCH_SECONDS = 1e11;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	private final int[] fields = new int[2 * MAX_FIELDS];
+
+	// Delimiter found in the header, 0 until it has been read
+	private char delimiter;
+
+	// Column of each field
+	private final int[] columns = new int[MAX_FIELDS];
+
+	public CsvParser(GpxSaxParserListener listener) {
+		super(listener);
+	}
+
+	@Override
+	protected void line(char[] buf, int start, int end) {
+		if (delimiter == 0) {
+			header(buf, start, end);
+			return;
+		}
+
+		int count = split(buf, start, end, delimiter, fields);
+		point.reset();
+		boolean lat = false;
+		boolean lon = false;
+		try {
+			for (int i = 0; i < count; i++) {
+				int from = fields[2 * i];
+				int to = fields[2 * i + 1];
+				// Quoted values
+				if (to - from >= 2 && buf[from] == '"' && buf[to - 1] == '"') {
+					from++;
+					to--;
+				}
+				if (to == from)
+					continue;
+
+				switch (columns[i]) {
+				case COLUMN_LAT:
+					point.setLat(number(buf, from, to));
+					lat = true;
+					break;
+				case COLUMN_LON:
+					point.setLon(number(buf, from, to));
+					lon = true;
+					break;
+				case COLUMN_ELE:
+					point.setEle((float) number(buf, from, to));
+					break;
+				case COLUMN_TIME:
+					point.setTime(time(buf, from, to));
+					break;
+				case COLUMN_SPEED:
+					point.setSpeed(number(buf, from, to));
+					break;
+				case COLUMN_COURSE:
+					point.setHeading(number(buf, from, to));
+					break;
+				case COLUMN_HDOP:
+					point.setHdop((float) number(buf, from, to));
+					break;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			// Includes NumberFormatException
+			return;
+		}
+
+		if (lat && lon && listener != null)
+			listener.onGpxPoint(point);
+	}
+
+	private void header(char[] buf, int start, int end) {
+		delimiter = delimiter(buf, start, end);
+		if (delimiter == 0)
+			throw new IllegalArgumentException(
+					"No lat and lon columns in the header");
+
+		int count = split(buf, start, end, delimiter, fields);
+		for (int i = 0; i < MAX_FIELDS; i++) {
+			columns[i] = i < count ? column(buf, fields[2 * i],
+					fields[2 * i + 1]) : COLUMN_NONE;
+		}
+	}
+
+	private double number(char[] buf, int from, int to) {
+		return CharNumbers.parseDouble(scratch, buf, from, to - from);
+	}
+
+	private long time(char[] buf, int from, int to) {
+		for (int i = from; i < to; i++) {
+			char c = buf[i];
+			if (c == '-' && i > from || c == 'T' || c == ':') {
+				scratch.set(buf, from, to - from);
+				return GpxTime.parse(scratch);
+			}
+		}
+		double epoch = number(buf, from, to);
+		return Math.round(epoch < MAX_EPOCH_SECONDS ? epoch * 1000 : epoch);
+	}
+
+	/**
+	 * @return the delimiter of a header line with lat and lon columns, or 0
+	 */
+	static char delimiter(char[] buf, int start, int end) {
+		int[] fields = new int[2 * MAX_FIELDS];
+		for (char delimiter : DELIMITERS) {
+			int count = split(buf, start, end, delimiter, fields);
+			boolean lat = false;
+			boolean lon = false;
+			for (int i = 0; i < count; i++) {
+				int column = column(buf, fields[2 * i], fields[2 * i + 1]);
+				lat |= column == COLUMN_LAT;
+				lon |= column == COLUMN_LON;
+			}
+			if (lat && lon)
+				return delimiter;
+		}
+		return 0;
+	}
+
+	/**
+	 * Column names are matched ignoring case, quotes and a unit in
+	 * parentheses, e.g. "Altitude (m)".
+	 */
+	static int column(char[] buf, int start, int end) {
+		String name = new String(buf, start, end - start).trim()
+				.toLowerCase(Locale.US);
+		// A UTF-8 byte order mark, decoded or as sniffed
+		if (name.startsWith("\ufeff"))
+			name = name.substring(1);
+		else if (name.startsWith("\u00ef\u00bb\u00bf"))
+			name = name.substring(3);
+		if (name.length() >= 2 && name.charAt(0) == '"'
+				&& name.charAt(name.length() - 1) == '"')
+			name = name.substring(1, name.length() - 1).trim();
+		int unit = name.indexOf('(');
+		if (unit > 0)
+			name = name.substring(0, unit).trim();
+
+		if (name.equals("lat") || name.equals("latitude"))
+			return COLUMN_LAT;
+		if (name.equals("lon") || name.equals("lng") || name.equals("long")
+				|| name.equals("longitude"))
+			return COLUMN_LON;
+		if (name.equals("ele") || name.equals("elevation")
+				|| name.equals("alt") || name.equals("altitude"))
+			return COLUMN_ELE;
+		if (name.equals("time") || name.equals("timestamp")
+				|| name.equals("datetime") || name.equals("date_time"))
+			return COLUMN_TIME;
+		if (name.equals("speed"))
+			return COLUMN_SPEED;
+		if (name.equals("course") || name.equals("bearing")
+				|| name.equals("heading"))
+			return COLUMN_COURSE;
+		if (name.equals("hdop"))
+			return COLUMN_HDOP;
+		return COLUMN_NONE;
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.geojson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+
+/**
+ * Reads the geometries of a GeoJSON document as they stream past. Geometries
+ * are told apart by the nesting of their coordinates rather than by their
+ * type, which may come after them: a single position is a waypoint, an
+ * array of positions a track, and deeper arrays a track whose innermost
+ * arrays are segments.
+ *
+ * GeoJSON positions have no time. The coordTimes property some converters
+ * write is used when it comes before the geometry of the feature.
+ *
+ * The point is reused as in GpxPullParser.
+ */
+public class GeoJsonParser extends Parser {
+
+	public static final TrackDecoder DECODER = new TrackDecoder() {
+
+		@Override
+		public String getName() {
+			return "geojson";
+		}
+
+		@Override
+		public boolean sniff(String head) {
+			return head.trim().startsWith("{") && head.contains("\"type\"");
+		}
+
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new GeoJsonParser(listener);
+		}
+	};
+
+	private final GpxSaxParserListener listener;
+
+	private final GpxStructureListener structure;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private JsonTokenizer tokens;
+
+	private int track;
+	private int segment;
+
+	// coordTimes of the current feature, and the next one to use
+	private long[] times = new long[256];
+	private int timeCount;
+	private int timeIndex;
+
+	public GeoJsonParser(GpxSaxParserListener listener) {
+		this.listener = listener;
+		this.structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+	}
+
+	@Override
+	public void parse(String json) {
+		parse(new StringReader(json));
+	}
+
+	@Override
+	public void parse(InputStream in) {
+		try {
+			parse(new InputStreamReader(in, "UTF-8"));
+		} catch (IOException e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	private void parse(Reader reader) {
+		try {
+			tokens = new JsonTokenizer(reader);
+			track = -1;
+
+			if (listener != null)
+				listener.onGpxStart();
+
+			value();
+
+			if (listener != null)
+				listener.onGpxEnd();
+
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads any value, looking for geometries in every object.
+	 */
+	private void value() throws IOException {
+		switch (tokens.next()) {
+		case JsonTokenizer.BEGIN_OBJECT:
+			object();
+			break;
+		case JsonTokenizer.BEGIN_ARRAY:
+			while (tokens.peek() != JsonTokenizer.END_ARRAY) {
+				if (tokens.peek() == JsonTokenizer.END)
+					throw new IOException("Unexpected end of JSON");
+				value();
+			}
+			tokens.next();
+			break;
+		case JsonTokenizer.END_OBJECT:
+		case JsonTokenizer.END_ARRAY:
+		case JsonTokenizer.NAME:
+		case JsonTokenizer.END:
+			throw new IOException("Malformed JSON");
+		}
+	}
+
+	private void object() throws IOException {
+		boolean feature = false;
+		while (true) {
+			int token = tokens.next();
+			if (token == JsonTokenizer.END_OBJECT)
+				break;
+			if (token != JsonTokenizer.NAME)
+				throw new IOException("Malformed JSON");
+
+			CharSequence name = tokens.string();
+			if (equals("coordinates", name)) {
+				coordinates();
+			} else if (equals("coordTimes", name)) {
+				timeCount = 0;
+				times();
+			} else if (equals("properties", name)) {
+				feature = true;
+				value();
+			} else if (equals("bbox", name)) {
+				tokens.skipValue();
+			} else {
+				value();
+			}
+		}
+		// The times belong to this feature only
+		if (feature)
+			timeCount = 0;
+	}
+
+	private void coordinates() throws IOException {
+		if (tokens.next() != JsonTokenizer.BEGIN_ARRAY)
+			throw new IOException("Malformed coordinates");
+
+		// A Point
+		if (tokens.peek() == JsonTokenizer.NUMBER) {
+			if (position() && structure != null)
+				structure.onGpxWaypoint(point);
+			return;
+		}
+
+		track++;
+		segment = -1;
+		timeIndex = 0;
+		if (structure != null)
+			structure.onGpxTrack(track, false);
+		positions();
+	}
+
+	/**
+	 * Reads the rest of an array of positions, or of arrays of them.
+	 */
+	private void positions() throws IOException {
+		while (true) {
+			int token = tokens.next();
+			if (token == JsonTokenizer.END_ARRAY)
+				return;
+			if (token != JsonTokenizer.BEGIN_ARRAY)
+				throw new IOException("Malformed coordinates");
+
+			if (tokens.peek() == JsonTokenizer.NUMBER) {
+				if (position()) {
+					if (timeIndex < timeCount)
+						point.setTime(times[timeIndex]);
+					timeIndex++;
+					if (listener != null)
+						listener.onGpxPoint(point);
+				}
+			} else {
+				segment++;
+				if (structure != null)
+					structure.onGpxSegment(track, segment);
+				positions();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of [lon, lat, alt...] into the point.
+	 *
+	 * @return false if there is no lon and lat
+	 */
+	private boolean position() throws IOException {
+		point.reset();
+		int count = 0;
+		int token;
+		while ((token = tokens.next()) == JsonTokenizer.NUMBER) {
+			double value = tokens.number();
+			if (count == 0)
+				point.setLon(value);
+			else if (count == 1)
+				point.setLat(value);
+			else if (count == 2)
+				point.setEle((float) value);
+			count++;
+		}
+		if (token != JsonTokenizer.END_ARRAY)
+			throw new IOException("Malformed position");
+		return count >= 2;
+	}
+
+	/**
+	 * Reads coordTimes, ISO-8601 strings or milliseconds since the epoch,
+	 * flattening the arrays of a multi geometry.
+	 */
+	private void times() throws IOException {
+		int token = tokens.next();
+		if (token == JsonTokenizer.BEGIN_ARRAY) {
+			while (tokens.peek() != JsonTokenizer.END_ARRAY) {
+				if (tokens.peek() == JsonTokenizer.END)
+					throw new IOException("Unexpected end of JSON");
+				times();
+			}
+			tokens.next();
+			return;
+		}
+
+		long time = 0;
+		if (token == JsonTokenizer.STRING) {
+			try {
+				time = GpxTime.parse(tokens.string());
+			} catch (IllegalArgumentException e) {
+				// Untimed
+			}
+		} else if (token == JsonTokenizer.NUMBER) {
+			time = (long) tokens.number();
+		} else if (token != JsonTokenizer.LITERAL) {
+			throw new IOException("Malformed coordTimes");
+		}
+
+		if (timeCount == times.length) {
+			long[] grown = new long[times.length * 2];
+			System.arraycopy(times, 0, grown, 0, timeCount);
+			times = grown;
+		}
+		times[timeCount++] = time;
+	}
+
+	private static boolean equals(String expected, CharSequence value) {
+		int length = expected.length();
+		if (value.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (expected.charAt(i) != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+}
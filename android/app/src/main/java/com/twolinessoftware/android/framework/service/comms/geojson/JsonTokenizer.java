@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.geojson;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * Minimal streaming JSON reader for GeoJsonParser. Commas and colons are
+ * not checked, a name is a string followed by a colon. Numbers are decoded
+ * as they are read, without creating a String.
+ */
+class JsonTokenizer {
+
+	static final int END = 0;
+	static final int BEGIN_OBJECT = 1;
+	static final int END_OBJECT = 2;
+	static final int BEGIN_ARRAY = 3;
+	static final int END_ARRAY = 4;
+	static final int NAME = 5;
+	static final int STRING = 6;
+	static final int NUMBER = 7;
+	static final int LITERAL = 8;
+
+	private static final int NONE = -1;
+
+	private final Reader reader;
+
+	private final char[] buf = new char[16 * 1024];
+	private int pos;
+	private int limit;
+
+	private int peeked = NONE;
+
+	// Value of the last NAME or STRING token
+	private final StringBuilder string = new StringBuilder();
+
+	// Value of the last NUMBER token
+	private double number;
+
+	private char[] numberChars = new char[32];
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	JsonTokenizer(Reader reader) {
+		this.reader = reader;
+	}
+
+	int peek() throws IOException {
+		if (peeked == NONE)
+			peeked = read();
+		return peeked;
+	}
+
+	int next() throws IOException {
+		int token = peek();
+		peeked = NONE;
+		return token;
+	}
+
+	/**
+	 * @return the value of the last NAME or STRING, valid until the next one
+	 */
+	CharSequence string() {
+		return string;
+	}
+
+	double number() {
+		return number;
+	}
+
+	/**
+	 * Skips the value that starts with the next token.
+	 */
+	void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch (next()) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				depth++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				depth--;
+				break;
+			case END:
+				throw new IOException("Unexpected end of JSON");
+			}
+		} while (depth > 0);
+	}
+
+	private int read() throws IOException {
+		int c;
+		do {
+			c = readChar();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ','
+				|| c == ':');
+
+		switch (c) {
+		case -1:
+			return END;
+		case '{':
+			return BEGIN_OBJECT;
+		case '}':
+			return END_OBJECT;
+		case '[':
+			return BEGIN_ARRAY;
+		case ']':
+			return END_ARRAY;
+		case '"':
+			readString();
+			int after = peekChar();
+			while (after == ' ' || after == '\n' || after == '\r'
+					|| after == '\t') {
+				pos++;
+				after = peekChar();
+			}
+			if (after == ':') {
+				pos++;
+				return NAME;
+			}
+			return STRING;
+		}
+
+		if (c == '-' || c >= '0' && c <= '9') {
+			readNumber((char) c);
+			return NUMBER;
+		}
+		if (c >= 'a' && c <= 'z') {
+			while (peekChar() >= 'a' && peekChar() <= 'z')
+				pos++;
+			return LITERAL;
+		}
+		throw new IOException("Unexpected character in JSON:" + (char) c);
+	}
+
+	private void readString() throws IOException {
+		string.setLength(0);
+		while (true) {
+			int c = readChar();
+			if (c == -1)
+				throw new IOException("Unterminated string");
+			if (c == '"')
+				return;
+			if (c == '\\') {
+				c = readChar();
+				switch (c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'b':
+					c = '\b';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'u':
+					int value = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(readChar(), 16);
+						if (digit < 0)
+							throw new IOException("Bad unicode escape");
+						value = value * 16 + digit;
+					}
+					c = value;
+					break;
+				case -1:
+					throw new IOException("Unterminated string");
+				}
+			}
+			string.append((char) c);
+		}
+	}
+
+	private void readNumber(char first) throws IOException {
+		int length = 0;
+		numberChars[length++] = first;
+		while (true) {
+			int c = peekChar();
+			if (!(c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E'
+					|| c == '-' || c == '+'))
+				break;
+			pos++;
+			if (length == numberChars.length) {
+				char[] grown = new char[length * 2];
+				System.arraycopy(numberChars, 0, grown, 0, length);
+				numberChars = grown;
+			}
+			numberChars[length++] = (char) c;
+		}
+		number = CharNumbers.parseDouble(scratch, numberChars, 0, length);
+	}
+
+	private int readChar() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return buf[pos++];
+	}
+
+	private int peekChar() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return buf[pos];
+	}
+
+	private boolean fill() throws IOException {
+		int read = reader.read(buf, 0, buf.length);
+		if (read <= 0)
+			return false;
+		pos = 0;
+		limit = read;
+		return true;
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+/**
+ * Reads the elements of one extension namespace into a GpxTrackPoint. The
+ * parser resolves an element name to a field once and then calls
+ * {@link #decode} with the field for every occurrence.
+ */
+public interface GpxExtensionDecoder {
+
+	int FIELD_NONE = -1;
+
+	/**
+	 * @param localName
+	 *            element name without the namespace prefix
+	 * @return a decoder specific field id, or FIELD_NONE to skip the element
+	 */
+	int field(String localName);
+
+	/**
+	 * @throws NumberFormatException
+	 *             if the text is not a valid value; the field is left unset
+	 */
+	void decode(int field, CharSequence text, GpxTrackPoint point);
+
+}
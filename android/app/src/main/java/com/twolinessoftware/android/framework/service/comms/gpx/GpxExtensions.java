@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.twolinessoftware.android.framework.util.CharNumbers;
+
+/**
+ * Registry of decoders for the extension elements found inside trkpt, keyed
+ * by namespace URI. Prefixes are resolved from the xmlns declarations the
+ * parser sees, falling back to the prefix each namespace is usually bound to
+ * for fragments that lost their declarations.
+ */
+public class GpxExtensions {
+
+	public static final String TREKBUDDY_RMC = "urn:net:trekbuddy:1.0:nmea:rmc";
+
+	public static final String GARMIN_TRACKPOINT_V2 = "http://www.garmin.com/xmlschemas/TrackPointExtension/v2";
+
+	private final Map<String, GpxExtensionDecoder> decoders = new HashMap<String, GpxExtensionDecoder>();
+
+	private final Map<String, String> defaultPrefixes = new HashMap<String, String>();
+
+	/**
+	 * @return a registry with the trekbuddy rmc and Garmin
+	 *         TrackPointExtension speed and course decoders
+	 */
+	public static GpxExtensions defaults() {
+		GpxExtensions extensions = new GpxExtensions();
+		GpxExtensionDecoder speedCourse = new SpeedCourseDecoder();
+		extensions.register(TREKBUDDY_RMC, "rmc", speedCourse);
+		// v1 has no speed or course
+		extensions.register(GARMIN_TRACKPOINT_V2, "gpxtpx", speedCourse);
+		return extensions;
+	}
+
+	/**
+	 * @param defaultPrefix
+	 *            prefix assumed when the document does not declare one, may
+	 *            be null
+	 */
+	public void register(String namespace, String defaultPrefix,
+			GpxExtensionDecoder decoder) {
+		decoders.put(namespace, decoder);
+		if (defaultPrefix != null)
+			defaultPrefixes.put(defaultPrefix, namespace);
+	}
+
+	/**
+	 * @return a resolver for a single document
+	 */
+	public Resolver newResolver() {
+		return new Resolver();
+	}
+
+	/**
+	 * Maps prefixed element names onto decoders. Results are cached per name,
+	 * so a document pays for the lookup once per distinct element.
+	 */
+	public class Resolver {
+
+		private final Map<String, String> prefixes = new HashMap<String, String>(
+				defaultPrefixes);
+
+		private final Map<String, Element> elements = new HashMap<String, Element>();
+
+		/**
+		 * Records an attribute if it is a namespace declaration.
+		 */
+		public void attribute(String name, String value) {
+			if (name.startsWith("xmlns:")) {
+				prefixes.put(name.substring(6), value);
+				elements.clear();
+			}
+		}
+
+		/**
+		 * @return the element to decode, or null if no decoder handles it
+		 */
+		public Element lookup(String qName) {
+			int colon = qName.indexOf(':');
+			if (colon < 0)
+				return null;
+
+			Element element = elements.get(qName);
+			if (element == null) {
+				element = resolve(qName.substring(0, colon),
+						qName.substring(colon + 1));
+				elements.put(qName, element);
+			}
+			return element == Element.NONE ? null : element;
+		}
+
+		private Element resolve(String prefix, String localName) {
+			String namespace = prefixes.get(prefix);
+			GpxExtensionDecoder decoder = namespace == null ? null : decoders
+					.get(namespace);
+			if (decoder == null)
+				return Element.NONE;
+
+			int field = decoder.field(localName);
+			if (field == GpxExtensionDecoder.FIELD_NONE)
+				return Element.NONE;
+			return new Element(decoder, field);
+		}
+
+	}
+
+	/**
+	 * An extension element bound to its decoder.
+	 */
+	public static final class Element {
+
+		static final Element NONE = new Element(null,
+				GpxExtensionDecoder.FIELD_NONE);
+
+		private final GpxExtensionDecoder decoder;
+		private final int field;
+
+		Element(GpxExtensionDecoder decoder, int field) {
+			this.decoder = decoder;
+			this.field = field;
+		}
+
+		public void decode(CharSequence text, GpxTrackPoint point) {
+			try {
+				decoder.decode(field, text, point);
+			} catch (NumberFormatException e) {
+				// Leave the field unset
+			}
+		}
+
+	}
+
+	/**
+	 * Speed in m/s and course in degrees, the way trekbuddy's rmc and
+	 * Garmin's TrackPointExtension v2 record them.
+	 */
+	static class SpeedCourseDecoder implements GpxExtensionDecoder {
+
+		private static final int FIELD_SPEED = 0;
+		private static final int FIELD_COURSE = 1;
+
+		@Override
+		public int field(String localName) {
+			if ("speed".equals(localName))
+				return FIELD_SPEED;
+			if ("course".equals(localName))
+				return FIELD_COURSE;
+			return FIELD_NONE;
+		}
+
+		@Override
+		public void decode(int field, CharSequence text, GpxTrackPoint point) {
+			double value = CharNumbers.parseDouble(text);
+			if (field == FIELD_SPEED)
+				point.setSpeed(value);
+			else
+				point.setHeading(value);
+		}
+
+	}
+
+}
@@ -15,6 +15,11 @@
  */
 package com.twolinessoftware.android.framework.service.comms.gpx;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
 import com.thoughtworks.xstream.XStream;
 import com.twolinessoftware.android.framework.service.comms.Parser;
 import com.twolinessoftware.android.framework.service.comms.XStreamParser;
@@ -37,8 +42,7 @@ public class GpxParser extends Parser {
 			xstream.alias("trkseg", GpxTrackSegment.class);
 			xstream.alias("trk", GpxTrackSegments.class);
 
-			xstream.useAttributeFor(GpxTrackPoint.class, "lat");
-			xstream.useAttributeFor(GpxTrackPoint.class, "lon");
+			xstream.registerConverter(new GpxTrackPointConverter());
 
 			xstream.addImplicitCollection(GpxTrackSegment.class, "trackPoints");
 			xstream.addImplicitCollection(GpxTrackSegments.class,
@@ -55,4 +59,26 @@ public class GpxParser extends Parser {
 		}
 	}
 
+	/**
+	 * XStream can only bind the first trk element, so the document still has
+	 * to be buffered before it can be cut down. Use GpxSaxParser for large
+	 * files.
+	 */
+	@Override
+	public void parse(InputStream in) {
+		try {
+			Reader reader = new InputStreamReader(in, "UTF-8");
+			StringBuilder xml = new StringBuilder();
+			char[] buf = new char[STREAM_BUFFER_SIZE];
+			int read;
+			while ((read = reader.read(buf)) != -1) {
+				xml.append(buf, 0, read);
+			}
+			parse(xml.toString());
+		} catch (IOException e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
 }
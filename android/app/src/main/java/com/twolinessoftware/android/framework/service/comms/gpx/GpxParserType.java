@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+
+/**
+ * The streaming GPX parser implementations that report through
+ * GpxSaxParserListener. Either one is the GPX decoder of a TrackDecoders.
+ */
+public enum GpxParserType implements TrackDecoder {
+
+	sax {
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new GpxSaxParser(listener);
+		}
+	},
+
+	pull {
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new GpxPullParser(listener);
+		}
+	};
+
+	@Override
+	public abstract Parser newParser(GpxSaxParserListener listener);
+
+	@Override
+	public String getName() {
+		return "gpx";
+	}
+
+	@Override
+	public boolean sniff(String head) {
+		return head.contains("<gpx");
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * XmlPullParser based alternative to GpxSaxParser. Numeric values are read
+ * directly out of the parser's character buffer and a single GpxTrackPoint
+ * is reused for the whole document, so listeners must copy the point if
+ * they keep it after onGpxPoint returns.
+ */
+public class GpxPullParser extends Parser {
+
+	private static final int FIELD_NONE = 0;
+	private static final int FIELD_ELE = 1;
+	private static final int FIELD_TIME = 2;
+	private static final int FIELD_SAT = 3;
+	private static final int FIELD_FIX = 4;
+	private static final int FIELD_HDOP = 5;
+	private static final int FIELD_VDOP = 6;
+	private static final int FIELD_PDOP = 7;
+	private static final int FIELD_EXTENSION = 8;
+
+	private GpxSaxParserListener listener;
+
+	private final GpxStructureListener structure;
+
+	private final GpxExtensions extensions;
+
+	private GpxExtensions.Resolver resolver;
+	private GpxExtensions.Element extension;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	private final int[] holder = new int[2];
+
+	public GpxPullParser(GpxSaxParserListener listener) {
+		this(listener, GpxExtensions.defaults());
+	}
+
+	public GpxPullParser(GpxSaxParserListener listener,
+			GpxExtensions extensions) {
+		this.listener = listener;
+		this.extensions = extensions;
+		this.structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+	}
+
+	@Override
+	public void parse(String xml) {
+		try {
+			parse(buildXmlParser(xml));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	@Override
+	public void parse(InputStream in) {
+		try {
+			parse(buildXmlParser(in));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	private void parse(XmlPullParser xpp) throws XmlPullParserException,
+			IOException {
+
+		boolean inPoint = false;
+		boolean waypoint = false;
+		int track = -1;
+		int segment = -1;
+		int field = FIELD_NONE;
+		resolver = extensions.newResolver();
+
+		if (listener != null)
+			listener.onGpxStart();
+
+		int event = xpp.getEventType();
+		while (event != XmlPullParser.END_DOCUMENT) {
+			switch (event) {
+			case XmlPullParser.START_TAG:
+				String name = xpp.getName();
+				for (int i = 0; i < xpp.getAttributeCount(); i++)
+					resolver.attribute(xpp.getAttributeName(i),
+							xpp.getAttributeValue(i));
+
+				if (!inPoint) {
+					if ("trk".equals(name) || "rte".equals(name)) {
+						track++;
+						segment = -1;
+						if (structure != null)
+							structure.onGpxTrack(track, "rte".equals(name));
+					} else if ("trkseg".equals(name)) {
+						segment++;
+						if (structure != null)
+							structure.onGpxSegment(track, segment);
+					} else if (isPoint(name)) {
+						inPoint = true;
+						waypoint = "wpt".equals(name);
+						startPoint(xpp);
+					}
+				} else if ("ele".equals(name)) {
+					field = FIELD_ELE;
+				} else if ("time".equals(name)) {
+					field = FIELD_TIME;
+				} else if ("sat".equals(name)) {
+					field = FIELD_SAT;
+				} else if ("fix".equals(name)) {
+					field = FIELD_FIX;
+				} else if ("hdop".equals(name)) {
+					field = FIELD_HDOP;
+				} else if ("vdop".equals(name)) {
+					field = FIELD_VDOP;
+				} else if ("pdop".equals(name)) {
+					field = FIELD_PDOP;
+				} else {
+					extension = resolver.lookup(name);
+					field = extension != null ? FIELD_EXTENSION : FIELD_NONE;
+				}
+				break;
+			case XmlPullParser.TEXT:
+				if (field != FIELD_NONE) {
+					char[] ch = xpp.getTextCharacters(holder);
+					readField(field, ch, holder[0], holder[1]);
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				field = FIELD_NONE;
+				if (inPoint && isPoint(xpp.getName())) {
+					inPoint = false;
+					if (!waypoint) {
+						if (listener != null)
+							listener.onGpxPoint(point);
+					} else if (structure != null) {
+						structure.onGpxWaypoint(point);
+					}
+				}
+				break;
+			}
+			event = xpp.next();
+		}
+
+		if (listener != null)
+			listener.onGpxEnd();
+	}
+
+	private static boolean isPoint(String name) {
+		return "trkpt".equals(name) || "rtept".equals(name)
+				|| "wpt".equals(name);
+	}
+
+	private void startPoint(XmlPullParser xpp) {
+		point.reset();
+
+		for (int i = 0; i < xpp.getAttributeCount(); i++) {
+			String name = xpp.getAttributeName(i);
+			if ("lat".equals(name))
+				point.setLat(CharNumbers.parseDouble(xpp.getAttributeValue(i)));
+			else if ("lon".equals(name))
+				point.setLon(CharNumbers.parseDouble(xpp.getAttributeValue(i)));
+		}
+	}
+
+	private void readField(int field, char[] ch, int start, int length) {
+		switch (field) {
+		case FIELD_ELE:
+			point.setEle((float) CharNumbers.parseDouble(scratch, ch, start,
+					length));
+			break;
+		case FIELD_TIME:
+			scratch.set(ch, start, length);
+			try {
+				point.setTime(GpxTime.parse(scratch));
+			} catch (IllegalArgumentException e) {
+				point.setTime(0);
+			}
+			break;
+		case FIELD_SAT:
+			point.setSat(new String(ch, start, length).trim());
+			break;
+		case FIELD_FIX:
+			point.setFix(new String(ch, start, length).trim());
+			break;
+		case FIELD_HDOP:
+			point.setHdop((float) CharNumbers.parseDouble(scratch, ch, start,
+					length));
+			break;
+		case FIELD_VDOP:
+			point.setVdop((float) CharNumbers.parseDouble(scratch, ch, start,
+					length));
+			break;
+		case FIELD_PDOP:
+			point.setPdop((float) CharNumbers.parseDouble(scratch, ch, start,
+					length));
+			break;
+		case FIELD_EXTENSION:
+			scratch.set(ch, start, length);
+			extension.decode(scratch, point);
+			break;
+		}
+	}
+
+}
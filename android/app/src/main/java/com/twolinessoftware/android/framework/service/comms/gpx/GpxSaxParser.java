@@ -15,6 +15,7 @@
  */
 package com.twolinessoftware.android.framework.service.comms.gpx;
 
+import java.io.InputStream;
 import java.io.StringReader;
 
 import javax.xml.parsers.SAXParser;
@@ -27,21 +28,44 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.util.CharNumbers;
 
 public class GpxSaxParser extends Parser {
 
 	private GpxSaxParserListener listener;
 
+	private final GpxExtensions extensions;
+
 	public GpxSaxParser(GpxSaxParserListener listener) {
+		this(listener, GpxExtensions.defaults());
+	}
+
+	public GpxSaxParser(GpxSaxParserListener listener, GpxExtensions extensions) {
 		this.listener = listener;
+		this.extensions = extensions;
 	}
 
+	/**
+	 * Parses the whole document, every trk, rte and wpt in it.
+	 */
 	@Override
 	public void parse(String xml) {
+		parse(new InputSource(new StringReader(xml)));
+	}
 
-		try {
+	/**
+	 * Feeds the stream straight into the XMLReader. Points are delivered to
+	 * the listener as soon as their closing tag is read, so memory use does
+	 * not depend on the size of the document.
+	 */
+	@Override
+	public void parse(InputStream in) {
+		parse(new InputSource(in));
+	}
 
-			String data = getNodesFromXml(xml, "trk");
+	private void parse(InputSource source) {
+
+		try {
 
 			SAXParserFactory spf = SAXParserFactory.newInstance();
 			SAXParser sp = spf.newSAXParser();
@@ -52,7 +76,7 @@ public class GpxSaxParser extends Parser {
 			GpxHandler gpxHandler = new GpxHandler();
 			xr.setContentHandler(gpxHandler);
 
-			xr.parse(new InputSource(new StringReader(data)));
+			xr.parse(source);
 		
 
 		} catch (Exception e) {
@@ -64,9 +88,23 @@ public class GpxSaxParser extends Parser {
 
 	class GpxHandler extends DefaultHandler {
 
+		private final GpxStructureListener structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+
+		private int track = -1;
+		private int segment = -1;
+
 		private GpxTrackPoint point;
+		private boolean waypoint;
 		private String currentTag;
 
+		private final GpxExtensions.Resolver resolver = extensions.newResolver();
+		private GpxExtensions.Element extension;
+
+		// Text nodes may be split across several characters() calls when
+		// the reader refills its buffer, so collect them until the end tag.
+		private final StringBuilder text = new StringBuilder();
+
 		@Override
 		public void startDocument() throws SAXException {
 			if (listener != null)
@@ -76,41 +114,86 @@ public class GpxSaxParser extends Parser {
 		@Override
 		public void characters(char[] ch, int start, int length)
 				throws SAXException {
-			if (currentTag != null) {
-				String value = new String(ch, start, length);
-
-				if (currentTag.equalsIgnoreCase("ele"))
-					point.setEle(Float.parseFloat(value));
-				else if (currentTag.equalsIgnoreCase("time"))
-					point.setTime(value);
-				else if (currentTag.equalsIgnoreCase("sat"))
-					point.setSat(value);
-				else if (currentTag.equalsIgnoreCase("fix"))
-					point.setFix(value);
+			if (currentTag != null && point != null) {
+				text.append(ch, start, length);
 			}
 		}
 
 		@Override
 		public void startElement(String uri, String localName, String qName,
 				Attributes attributes) throws SAXException {
-			if (qName.equalsIgnoreCase("trkpt")) {
+			for (int i = 0; i < attributes.getLength(); i++)
+				resolver.attribute(attributes.getQName(i), attributes.getValue(i));
+
+			if (qName.equalsIgnoreCase("trk") || qName.equalsIgnoreCase("rte")) {
+				track++;
+				segment = -1;
+				if (structure != null)
+					structure.onGpxTrack(track, qName.equalsIgnoreCase("rte"));
+			} else if (qName.equalsIgnoreCase("trkseg")) {
+				segment++;
+				if (structure != null)
+					structure.onGpxSegment(track, segment);
+			} else if (isPoint(qName)) {
 				point = new GpxTrackPoint();
-				point.setLat(Float.parseFloat(attributes.getValue("lat")));
-				point.setLon(Float.parseFloat(attributes.getValue("lon")));
+				waypoint = qName.equalsIgnoreCase("wpt");
+				point.setLat(CharNumbers.parseDouble(attributes.getValue("lat")));
+				point.setLon(CharNumbers.parseDouble(attributes.getValue("lon")));
 
 			}
 
 			currentTag = qName;
+			extension = point != null ? resolver.lookup(qName) : null;
+			text.setLength(0);
 		}
 
 		@Override
 		public void endElement(String uri, String localName, String qName)
 				throws SAXException {
 
+			if (point != null && currentTag != null) {
+				if (extension != null)
+					extension.decode(text, point);
+				else if (currentTag.equalsIgnoreCase("ele"))
+					point.setEle((float) CharNumbers.parseDouble(text));
+				else if (currentTag.equalsIgnoreCase("time"))
+					point.setTime(parseTime(text));
+				else if (currentTag.equalsIgnoreCase("sat"))
+					point.setSat(text.toString().trim());
+				else if (currentTag.equalsIgnoreCase("fix"))
+					point.setFix(text.toString().trim());
+				else if (currentTag.equalsIgnoreCase("hdop"))
+					point.setHdop((float) CharNumbers.parseDouble(text));
+				else if (currentTag.equalsIgnoreCase("vdop"))
+					point.setVdop((float) CharNumbers.parseDouble(text));
+				else if (currentTag.equalsIgnoreCase("pdop"))
+					point.setPdop((float) CharNumbers.parseDouble(text));
+			}
+
 			currentTag = null;
-			if (qName.equalsIgnoreCase("trkpt")) {
-				if (listener != null)
-					listener.onGpxPoint(point);
+			extension = null;
+			if (point != null && isPoint(qName)) {
+				if (!waypoint) {
+					if (listener != null)
+						listener.onGpxPoint(point);
+				} else if (structure != null) {
+					structure.onGpxWaypoint(point);
+				}
+				point = null;
+			}
+		}
+
+		private boolean isPoint(String qName) {
+			return qName.equalsIgnoreCase("trkpt")
+					|| qName.equalsIgnoreCase("rtept")
+					|| qName.equalsIgnoreCase("wpt");
+		}
+
+		private long parseTime(CharSequence value) {
+			try {
+				return GpxTime.parse(value);
+			} catch (IllegalArgumentException e) {
+				return 0;
 			}
 		}
 
@@ -17,6 +17,10 @@ package com.twolinessoftware.android.framework.service.comms.gpx;
 
 public interface GpxSaxParserListener {
 
+	/**
+	 * The parser may reuse the point once this returns, so implementations
+	 * must copy it if they keep a reference.
+	 */
 	void onGpxPoint(GpxTrackPoint item);
 
 	void onGpxError(String message);
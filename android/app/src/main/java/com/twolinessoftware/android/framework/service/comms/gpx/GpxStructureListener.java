@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+/**
+ * Optional second interface for a GpxSaxParserListener that wants to know
+ * where each point of the document belongs. The streaming parsers check
+ * for it and report the boundaries in the same single pass as the points.
+ * Points of every trk and rte go to onGpxPoint in document order, after
+ * the boundary callbacks that precede them.
+ */
+public interface GpxStructureListener {
+
+	/**
+	 * A trk or rte starts. Tracks and routes are numbered together in
+	 * document order, from 0.
+	 */
+	void onGpxTrack(int track, boolean route);
+
+	/**
+	 * A trkseg of the current track starts, numbered from 0. Routes have no
+	 * segments.
+	 */
+	void onGpxSegment(int track, int segment);
+
+	/**
+	 * A wpt has been read. As with onGpxPoint the parser may reuse the
+	 * point once this returns.
+	 */
+	void onGpxWaypoint(GpxTrackPoint point);
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+/**
+ * Decoder for the ISO-8601 timestamps used in GPX time elements, e.g.
+ * 2009-05-09T19:26:23Z, 2009-05-09T19:26:23.250Z or
+ * 2009-05-09T13:26:23-06:00. Timestamps without a zone are taken as UTC, as
+ * required by the GPX schema.
+ *
+ * Safe to call from any thread. The date part of the last timestamp is
+ * remembered so consecutive points from the same day only decode the time.
+ */
+public class GpxTime {
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static volatile Day lastDay = new Day(1970, 1, 1, 0);
+
+	/**
+	 * @return milliseconds since the epoch
+	 * @throws IllegalArgumentException if the value is not a timestamp
+	 */
+	public static long parse(CharSequence value) {
+		int start = 0;
+		int end = value.length();
+
+		while (start < end && value.charAt(start) <= ' ')
+			start++;
+		while (end > start && value.charAt(end - 1) <= ' ')
+			end--;
+
+		// yyyy-MM-ddTHH:mm:ss is the shortest accepted form
+		if (end - start < 19 || value.charAt(start + 4) != '-'
+				|| value.charAt(start + 7) != '-'
+				|| (value.charAt(start + 10) != 'T' && value.charAt(start + 10) != 't')
+				|| value.charAt(start + 13) != ':'
+				|| value.charAt(start + 16) != ':')
+			throw invalid(value);
+
+		int year = digits(value, start, 4);
+		int month = digits(value, start + 5, 2);
+		int day = digits(value, start + 8, 2);
+		int hour = digits(value, start + 11, 2);
+		int minute = digits(value, start + 14, 2);
+		int second = digits(value, start + 17, 2);
+
+		if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 24
+				|| minute > 59 || second > 60)
+			throw invalid(value);
+
+		int pos = start + 19;
+
+		int millis = 0;
+		if (pos < end && (value.charAt(pos) == '.' || value.charAt(pos) == ',')) {
+			pos++;
+			int scale = 100;
+			int fractionStart = pos;
+			while (pos < end) {
+				char c = value.charAt(pos);
+				if (c < '0' || c > '9')
+					break;
+				millis += (c - '0') * scale;
+				scale /= 10;
+				pos++;
+			}
+			if (pos == fractionStart)
+				throw invalid(value);
+		}
+
+		int offsetMinutes = 0;
+		if (pos < end) {
+			char c = value.charAt(pos);
+			if (c == 'Z' || c == 'z') {
+				pos++;
+			} else if (c == '+' || c == '-') {
+				pos++;
+				if (end - pos < 2)
+					throw invalid(value);
+				int offsetHours = digits(value, pos, 2);
+				pos += 2;
+				int offsetMins = 0;
+				if (pos < end) {
+					if (value.charAt(pos) == ':')
+						pos++;
+					if (end - pos < 2)
+						throw invalid(value);
+					offsetMins = digits(value, pos, 2);
+					pos += 2;
+				}
+				offsetMinutes = offsetHours * 60 + offsetMins;
+				if (c == '-')
+					offsetMinutes = -offsetMinutes;
+			}
+		}
+
+		if (pos != end)
+			throw invalid(value);
+
+		long time = ((hour * 60L + minute - offsetMinutes) * 60 + second)
+				* 1000 + millis;
+
+		return epochDayMillis(year, month, day) + time;
+	}
+
+	private static long epochDayMillis(int year, int month, int day) {
+		Day cached = lastDay;
+		if (cached.year == year && cached.month == month
+				&& cached.day == day)
+			return cached.millis;
+
+		long millis = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+		lastDay = new Day(year, month, day, millis);
+		return millis;
+	}
+
+	/**
+	 * Days since 1970-01-01 in the proleptic Gregorian calendar.
+	 */
+	public static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day
+				- 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	/**
+	 * Formats as yyyy-MM-ddTHH:mm:ss.SSSZ in UTC.
+	 */
+	public static String format(long millis) {
+		long days = millis / MILLIS_PER_DAY;
+		if (millis % MILLIS_PER_DAY < 0)
+			days--;
+		long time = millis - days * MILLIS_PER_DAY;
+
+		// Inverse of daysFromCivil
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		StringBuilder sb = new StringBuilder(24);
+		pad(sb, year, 4).append('-');
+		pad(sb, month, 2).append('-');
+		pad(sb, day, 2).append('T');
+		pad(sb, time / 3600000, 2).append(':');
+		pad(sb, time / 60000 % 60, 2).append(':');
+		pad(sb, time / 1000 % 60, 2).append('.');
+		pad(sb, time % 1000, 3).append('Z');
+		return sb.toString();
+	}
+
+	private static StringBuilder pad(StringBuilder sb, long value, int width) {
+		String s = Long.toString(value);
+		for (int i = s.length(); i < width; i++)
+			sb.append('0');
+		return sb.append(s);
+	}
+
+	private static int digits(CharSequence value, int pos, int count) {
+		int result = 0;
+		for (int i = pos; i < pos + count; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				throw invalid(value);
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static IllegalArgumentException invalid(CharSequence value) {
+		return new IllegalArgumentException("Invalid GPX time:" + value);
+	}
+
+	private static class Day {
+
+		final int year;
+		final int month;
+		final int day;
+		final long millis;
+
+		Day(int year, int month, int day, long millis) {
+			this.year = year;
+			this.month = month;
+			this.day = day;
+			this.millis = millis;
+		}
+
+	}
+
+}
@@ -21,12 +21,50 @@ public class GpxTrackPoint implements Serializable {
 
 	private static final long serialVersionUID = -4894963006110633397L;
 	private float ele;
-	private String time;
+	private long time;
 	private String fix;
 	private String sat;
 	private double lat;
 	private double lon;
-    private double heading;
+    // NaN when not recorded in the file
+    private double heading = Double.NaN;
+	private float hdop = Float.NaN;
+	private float vdop = Float.NaN;
+	private float pdop = Float.NaN;
+
+	public GpxTrackPoint() {
+	}
+
+	/**
+	 * Clears every field, for parsers that reuse one point per document.
+	 */
+	public void reset() {
+		ele = 0;
+		time = 0;
+		fix = null;
+		sat = null;
+		lat = 0;
+		lon = 0;
+		heading = Double.NaN;
+		speed = Double.NaN;
+		hdop = Float.NaN;
+		vdop = Float.NaN;
+		pdop = Float.NaN;
+	}
+
+	public GpxTrackPoint(GpxTrackPoint other) {
+		ele = other.ele;
+		time = other.time;
+		fix = other.fix;
+		sat = other.sat;
+		lat = other.lat;
+		lon = other.lon;
+		heading = other.heading;
+		speed = other.speed;
+		hdop = other.hdop;
+		vdop = other.vdop;
+		pdop = other.pdop;
+	}
 
     public double getSpeed() {
         return speed;
@@ -36,7 +74,12 @@ public class GpxTrackPoint implements Serializable {
         this.speed = speed;
     }
 
-    private double speed;
+    // Meters per second, NaN when not recorded in the file
+    private double speed = Double.NaN;
+
+    public boolean hasSpeed() {
+        return !Double.isNaN(speed);
+    }
 
 	public float getEle() {
 		return ele;
@@ -46,14 +89,21 @@ public class GpxTrackPoint implements Serializable {
 		this.ele = ele;
 	}
 
-	public String getTime() {
+	/**
+	 * @return milliseconds since the epoch, or 0 if the point has no time
+	 */
+	public long getTime() {
 		return time;
 	}
 
-	public void setTime(String time) {
+	public void setTime(long time) {
 		this.time = time;
 	}
 
+	public boolean hasTime() {
+		return time != 0;
+	}
+
 	public String getFix() {
 		return fix;
 	}
@@ -96,4 +146,35 @@ public class GpxTrackPoint implements Serializable {
         return heading;
     }
 
+    public boolean hasHeading() {
+        return !Double.isNaN(heading);
+    }
+
+	/**
+	 * @return horizontal dilution of precision, or NaN if not recorded
+	 */
+	public float getHdop() {
+		return hdop;
+	}
+
+	public void setHdop(float hdop) {
+		this.hdop = hdop;
+	}
+
+	public float getVdop() {
+		return vdop;
+	}
+
+	public void setVdop(float vdop) {
+		this.vdop = vdop;
+	}
+
+	public float getPdop() {
+		return pdop;
+	}
+
+	public void setPdop(float pdop) {
+		this.pdop = pdop;
+	}
+
 }
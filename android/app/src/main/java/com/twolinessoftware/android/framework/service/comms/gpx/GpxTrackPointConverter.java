@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+
+/**
+ * Maps trkpt elements for GpxParser, decoding the time element with GpxTime.
+ * Unknown child elements are skipped.
+ */
+public class GpxTrackPointConverter implements Converter {
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean canConvert(Class type) {
+		return type == GpxTrackPoint.class;
+	}
+
+	@Override
+	public void marshal(Object source, HierarchicalStreamWriter writer,
+			MarshallingContext context) {
+		GpxTrackPoint point = (GpxTrackPoint) source;
+
+		writer.addAttribute("lat", String.valueOf(point.getLat()));
+		writer.addAttribute("lon", String.valueOf(point.getLon()));
+
+		writer.startNode("ele");
+		writer.setValue(String.valueOf(point.getEle()));
+		writer.endNode();
+
+		if (point.hasTime()) {
+			writer.startNode("time");
+			writer.setValue(GpxTime.format(point.getTime()));
+			writer.endNode();
+		}
+	}
+
+	@Override
+	public Object unmarshal(HierarchicalStreamReader reader,
+			UnmarshallingContext context) {
+		GpxTrackPoint point = new GpxTrackPoint();
+
+		String lat = reader.getAttribute("lat");
+		String lon = reader.getAttribute("lon");
+		if (lat == null || lon == null)
+			throw new ConversionException("trkpt is missing lat/lon");
+
+		try {
+			point.setLat(CharNumbers.parseDouble(lat));
+			point.setLon(CharNumbers.parseDouble(lon));
+
+			while (reader.hasMoreChildren()) {
+				reader.moveDown();
+				String name = reader.getNodeName();
+				if ("ele".equals(name))
+					point.setEle((float) CharNumbers.parseDouble(reader
+							.getValue()));
+				else if ("time".equals(name))
+					point.setTime(GpxTime.parse(reader.getValue()));
+				else if ("sat".equals(name))
+					point.setSat(reader.getValue().trim());
+				else if ("fix".equals(name))
+					point.setFix(reader.getValue().trim());
+				reader.moveUp();
+			}
+		} catch (IllegalArgumentException e) {
+			throw new ConversionException(e.getMessage(), e);
+		}
+
+		return point;
+	}
+
+}
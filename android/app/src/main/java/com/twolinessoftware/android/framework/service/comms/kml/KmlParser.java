@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.kml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * Reads the tracks of a KML document: every LineString and LinearRing,
+ * whose points have no time, and every gx:Track, whose when elements give
+ * the times of its gx:coord points in order. Each is reported as a track to
+ * a GpxStructureListener and the Point placemarks as waypoints.
+ *
+ * The point is reused as in GpxPullParser.
+ */
+public class KmlParser extends Parser {
+
+	public static final TrackDecoder DECODER = new TrackDecoder() {
+
+		@Override
+		public String getName() {
+			return "kml";
+		}
+
+		@Override
+		public boolean sniff(String head) {
+			return head.contains("<kml");
+		}
+
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new KmlParser(listener);
+		}
+	};
+
+	private static final int FIELD_NONE = 0;
+	private static final int FIELD_COORDINATES = 1;
+	private static final int FIELD_WHEN = 2;
+	private static final int FIELD_COORD = 3;
+
+	private final GpxSaxParserListener listener;
+
+	private final GpxStructureListener structure;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	private final int[] holder = new int[2];
+
+	// Collects text that may come in several events
+	private final StringBuilder text = new StringBuilder();
+
+	// Copy of a value in text, for the number parser
+	private char[] chars = new char[64];
+
+	private int track;
+
+	// Times of the gx:Track being read, and the next one to use
+	private long[] times = new long[256];
+	private int timeCount;
+	private int timeIndex;
+
+	public KmlParser(GpxSaxParserListener listener) {
+		this.listener = listener;
+		this.structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+	}
+
+	@Override
+	public void parse(String xml) {
+		try {
+			parse(buildXmlParser(xml));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	@Override
+	public void parse(InputStream in) {
+		try {
+			parse(buildXmlParser(in));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	private void parse(XmlPullParser xpp) throws XmlPullParserException,
+			IOException {
+
+		boolean inPoint = false;
+		int field = FIELD_NONE;
+		track = -1;
+
+		if (listener != null)
+			listener.onGpxStart();
+
+		int event = xpp.getEventType();
+		while (event != XmlPullParser.END_DOCUMENT) {
+			switch (event) {
+			case XmlPullParser.START_TAG:
+				String name = localName(xpp.getName());
+				if ("LineString".equals(name) || "LinearRing".equals(name)) {
+					startTrack();
+				} else if ("Track".equals(name)) {
+					startTrack();
+					timeCount = 0;
+					timeIndex = 0;
+				} else if ("Point".equals(name)) {
+					inPoint = true;
+				} else if ("coordinates".equals(name)) {
+					field = FIELD_COORDINATES;
+				} else if ("when".equals(name)) {
+					field = FIELD_WHEN;
+				} else if ("coord".equals(name)) {
+					field = FIELD_COORD;
+				}
+				text.setLength(0);
+				break;
+			case XmlPullParser.TEXT:
+				if (field != FIELD_NONE) {
+					char[] ch = xpp.getTextCharacters(holder);
+					text.append(ch, holder[0], holder[1]);
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				switch (field) {
+				case FIELD_COORDINATES:
+					coordinates(inPoint);
+					break;
+				case FIELD_WHEN:
+					when();
+					break;
+				case FIELD_COORD:
+					coord();
+					break;
+				}
+				field = FIELD_NONE;
+				if ("Point".equals(localName(xpp.getName())))
+					inPoint = false;
+				break;
+			}
+			event = xpp.next();
+		}
+
+		if (listener != null)
+			listener.onGpxEnd();
+	}
+
+	private void startTrack() {
+		track++;
+		if (structure != null)
+			structure.onGpxTrack(track, false);
+	}
+
+	/**
+	 * lon,lat[,alt] tuples separated by whitespace.
+	 */
+	private void coordinates(boolean waypoint) {
+		int length = text.length();
+		int pos = 0;
+		while (pos < length) {
+			while (pos < length && text.charAt(pos) <= ' ')
+				pos++;
+			int end = pos;
+			while (end < length && text.charAt(end) > ' ')
+				end++;
+			if (end > pos) {
+				point.reset();
+				if (tuple(pos, end, ',')) {
+					if (!waypoint) {
+						if (listener != null)
+							listener.onGpxPoint(point);
+					} else if (structure != null) {
+						structure.onGpxWaypoint(point);
+					}
+				}
+			}
+			pos = end;
+		}
+	}
+
+	private void when() {
+		if (timeCount == times.length) {
+			long[] grown = new long[times.length * 2];
+			System.arraycopy(times, 0, grown, 0, timeCount);
+			times = grown;
+		}
+		long time;
+		try {
+			time = GpxTime.parse(text);
+		} catch (IllegalArgumentException e) {
+			time = 0;
+		}
+		times[timeCount++] = time;
+	}
+
+	/**
+	 * "lon lat [alt]" of a gx:Track, timed by the when element of the same
+	 * position.
+	 */
+	private void coord() {
+		point.reset();
+		int start = 0;
+		int end = text.length();
+		while (start < end && text.charAt(start) <= ' ')
+			start++;
+		while (end > start && text.charAt(end - 1) <= ' ')
+			end--;
+		if (!tuple(start, end, ' '))
+			return;
+
+		if (timeIndex < timeCount)
+			point.setTime(times[timeIndex]);
+		timeIndex++;
+		if (listener != null)
+			listener.onGpxPoint(point);
+	}
+
+	/**
+	 * Reads lon, lat and optionally alt from text[start, end) into the point.
+	 *
+	 * @return false if there is no lon and lat
+	 */
+	private boolean tuple(int start, int end, char separator) {
+		int value = 0;
+		int from = start;
+		for (int i = start; i <= end && value < 3; i++) {
+			if (i == end || text.charAt(i) == separator) {
+				if (i > from) {
+					double number = CharNumbers.parseDouble(scratch,
+							chars(from, i), 0, i - from);
+					if (value == 0)
+						point.setLon(number);
+					else if (value == 1)
+						point.setLat(number);
+					else
+						point.setEle((float) number);
+				}
+				value++;
+				from = i + 1;
+			}
+		}
+		return value >= 2;
+	}
+
+	private char[] chars(int from, int to) {
+		if (chars.length < to - from)
+			chars = new char[to - from];
+		text.getChars(from, to, chars, 0);
+		return chars;
+	}
+
+	private static String localName(String name) {
+		int colon = name.indexOf(':');
+		return colon < 0 ? name : name.substring(colon + 1);
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.nmea;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TextParser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * Reads NMEA 0183 logs. RMC sentences give position, speed, course and the
+ * date, GGA sentences position, altitude, hdop and satellites; the sentences
+ * of one fix, i.e. with the same time of day, are merged into one point.
+ * Sentences with a bad checksum or without a valid fix are skipped, as are
+ * the other sentence types.
+ *
+ * The point is reused as in GpxPullParser.
+ */
+public class NmeaParser extends TextParser {
+
+	public static final TrackDecoder DECODER = new TrackDecoder() {
+
+		@Override
+		public String getName() {
+			return "nmea";
+		}
+
+		@Override
+		public boolean sniff(String head) {
+			String text = head.trim();
+			return text.length() > 6 && text.charAt(0) == '$'
+					&& text.charAt(6) == ',';
+		}
+
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new NmeaParser(listener);
+		}
+	};
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final double METERS_PER_SECOND_PER_KNOT = 1852.0 / 3600;
+
+	private static final int MAX_FIELDS = 20;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	private final int[] fields = new int[2 * MAX_FIELDS];
+
+	// Time of day of the point being merged, -1 for none
+	private long pointTimeOfDay = -1;
+	private boolean hasPosition;
+
+	// From the last RMC date, so GGA only logs count from the epoch
+	private long dayMillis;
+	private long lastTimeOfDay = -1;
+
+	public NmeaParser(GpxSaxParserListener listener) {
+		super(listener);
+	}
+
+	@Override
+	protected void line(char[] buf, int start, int end) {
+		while (start < end && buf[start] != '$')
+			start++;
+		if (end - start < 7 || !checksum(buf, start, end))
+			return;
+
+		int count = split(buf, start, end, ',', fields);
+		int type = start + 3;
+		try {
+			if (buf[type] == 'R' && buf[type + 1] == 'M' && buf[type + 2] == 'C')
+				rmc(buf, count);
+			else if (buf[type] == 'G' && buf[type + 1] == 'G' && buf[type + 2] == 'A')
+				gga(buf, count);
+		} catch (NumberFormatException e) {
+			// Garbled sentence
+		}
+	}
+
+	@Override
+	protected void end() {
+		flush();
+	}
+
+	/**
+	 * $--RMC,hhmmss.ss,A,llll.ll,a,yyyyy.yy,a,x.x,x.x,ddmmyy,...
+	 */
+	private void rmc(char[] buf, int count) {
+		if (count < 10 || !isField(buf, 2, 'A'))
+			return;
+
+		long date = -1;
+		int field = fields[18];
+		if (fields[19] - field >= 6) {
+			int day = digits(buf, field, 2);
+			int month = digits(buf, field + 2, 2);
+			int year = 2000 + digits(buf, field + 4, 2);
+			// NMEA years are two digits, GPS logs start in the 1980s
+			if (year > 2079)
+				year -= 100;
+			date = GpxTime.daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+		}
+
+		if (!startFix(buf))
+			return;
+		// Only RMC has the date, it applies from this fix on
+		if (date >= 0)
+			dayMillis = date;
+
+		position(buf, 3);
+		if (fields[15] > fields[14])
+			point.setSpeed(number(buf, 7) * METERS_PER_SECOND_PER_KNOT);
+		if (fields[17] > fields[16])
+			point.setHeading(number(buf, 8));
+	}
+
+	/**
+	 * $--GGA,hhmmss.ss,llll.ll,a,yyyyy.yy,a,q,ss,h.h,a.a,M,...
+	 */
+	private void gga(char[] buf, int count) {
+		if (count < 10 || isField(buf, 6, '0') || !startFix(buf))
+			return;
+
+		if (!hasPosition)
+			position(buf, 2);
+		if (fields[15] > fields[14])
+			point.setSat(new String(buf, fields[14], fields[15] - fields[14]));
+		if (fields[17] > fields[16])
+			point.setHdop((float) number(buf, 8));
+		if (fields[19] > fields[18])
+			point.setEle((float) number(buf, 9));
+	}
+
+	/**
+	 * Sends the previous point if this sentence is of another fix.
+	 *
+	 * @return false if the sentence has no time
+	 */
+	private boolean startFix(char[] buf) {
+		int time = fields[2];
+		if (fields[3] - time < 6)
+			return false;
+
+		long timeOfDay = ((digits(buf, time, 2) * 60L + digits(buf, time + 2, 2)) * 60
+				+ digits(buf, time + 4, 2)) * 1000;
+		if (fields[3] - time > 7)
+			timeOfDay += Math.round(CharNumbers.parseDouble(scratch, buf,
+					time + 6, fields[3] - time - 6) * 1000);
+
+		if (timeOfDay == pointTimeOfDay)
+			return true;
+
+		flush();
+
+		// Past midnight without an RMC date
+		if (lastTimeOfDay >= 0 && timeOfDay < lastTimeOfDay - MILLIS_PER_DAY / 2)
+			dayMillis += MILLIS_PER_DAY;
+		lastTimeOfDay = timeOfDay;
+
+		point.reset();
+		pointTimeOfDay = timeOfDay;
+		hasPosition = false;
+		return true;
+	}
+
+	private void flush() {
+		if (pointTimeOfDay >= 0 && hasPosition) {
+			point.setTime(dayMillis + pointTimeOfDay);
+			if (listener != null)
+				listener.onGpxPoint(point);
+		}
+		pointTimeOfDay = -1;
+	}
+
+	/**
+	 * Reads ddmm.mmmm,N,dddmm.mmmm,E starting at the field.
+	 */
+	private void position(char[] buf, int field) {
+		int lat = fields[2 * field];
+		int lon = fields[2 * field + 4];
+		if (fields[2 * field + 1] - lat < 4 || fields[2 * field + 5] - lon < 5)
+			return;
+
+		double latitude = digits(buf, lat, 2)
+				+ CharNumbers.parseDouble(scratch, buf, lat + 2,
+						fields[2 * field + 1] - lat - 2) / 60;
+		double longitude = digits(buf, lon, 3)
+				+ CharNumbers.parseDouble(scratch, buf, lon + 3,
+						fields[2 * field + 5] - lon - 3) / 60;
+		if (isField(buf, field + 1, 'S'))
+			latitude = -latitude;
+		if (isField(buf, field + 3, 'W'))
+			longitude = -longitude;
+
+		point.setLat(latitude);
+		point.setLon(longitude);
+		hasPosition = true;
+	}
+
+	private double number(char[] buf, int field) {
+		int start = fields[2 * field];
+		return CharNumbers.parseDouble(scratch, buf, start, fields[2 * field + 1]
+				- start);
+	}
+
+	private boolean isField(char[] buf, int field, char value) {
+		int start = fields[2 * field];
+		return fields[2 * field + 1] > start && buf[start] == value;
+	}
+
+	private static int digits(char[] buf, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Not a digit:" + buf[i]);
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return true if the sentence has no checksum or a matching one
+	 */
+	private static boolean checksum(char[] buf, int start, int end) {
+		int sum = 0;
+		for (int i = start + 1; i < end; i++) {
+			char c = buf[i];
+			if (c == '*') {
+				if (end - i < 3)
+					return false;
+				int expected = Character.digit(buf[i + 1], 16) * 16
+						+ Character.digit(buf[i + 2], 16);
+				return sum == expected;
+			}
+			sum ^= c;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.tcx;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.twolinessoftware.android.framework.service.comms.Parser;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoder;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.util.CharNumbers;
+import com.twolinessoftware.android.framework.util.CharNumbers.CharArraySequence;
+
+/**
+ * Reads Garmin Training Center (TCX) documents. Each Activity and Course is
+ * a track and each of their Track elements a segment; Trackpoints without a
+ * Position are skipped. The speed of the ActivityExtension TPX element is
+ * used where recorded. CoursePoints are reported as waypoints.
+ *
+ * The point is reused as in GpxPullParser.
+ */
+public class TcxParser extends Parser {
+
+	public static final TrackDecoder DECODER = new TrackDecoder() {
+
+		@Override
+		public String getName() {
+			return "tcx";
+		}
+
+		@Override
+		public boolean sniff(String head) {
+			return head.contains("<TrainingCenterDatabase");
+		}
+
+		@Override
+		public Parser newParser(GpxSaxParserListener listener) {
+			return new TcxParser(listener);
+		}
+	};
+
+	private static final int FIELD_NONE = 0;
+	private static final int FIELD_TIME = 1;
+	private static final int FIELD_LAT = 2;
+	private static final int FIELD_LON = 3;
+	private static final int FIELD_ALTITUDE = 4;
+	private static final int FIELD_SPEED = 5;
+
+	private final GpxSaxParserListener listener;
+
+	private final GpxStructureListener structure;
+
+	private final GpxTrackPoint point = new GpxTrackPoint();
+
+	private final CharArraySequence scratch = new CharArraySequence();
+
+	private final int[] holder = new int[2];
+
+	public TcxParser(GpxSaxParserListener listener) {
+		this.listener = listener;
+		this.structure = listener instanceof GpxStructureListener
+				? (GpxStructureListener) listener : null;
+	}
+
+	@Override
+	public void parse(String xml) {
+		try {
+			parse(buildXmlParser(xml));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	@Override
+	public void parse(InputStream in) {
+		try {
+			parse(buildXmlParser(in));
+		} catch (Exception e) {
+			if (listener != null)
+				listener.onGpxError(e.getMessage());
+		}
+	}
+
+	private void parse(XmlPullParser xpp) throws XmlPullParserException,
+			IOException {
+
+		boolean inPoint = false;
+		boolean waypoint = false;
+		boolean position = false;
+		int field = FIELD_NONE;
+		int track = -1;
+		int segment = -1;
+
+		if (listener != null)
+			listener.onGpxStart();
+
+		int event = xpp.getEventType();
+		while (event != XmlPullParser.END_DOCUMENT) {
+			switch (event) {
+			case XmlPullParser.START_TAG:
+				String name = localName(xpp.getName());
+				if (!inPoint) {
+					if ("Activity".equals(name) || "Course".equals(name)) {
+						track++;
+						segment = -1;
+						if (structure != null)
+							structure.onGpxTrack(track, false);
+					} else if ("Track".equals(name)) {
+						segment++;
+						if (structure != null)
+							structure.onGpxSegment(track, segment);
+					} else if ("Trackpoint".equals(name)
+							|| "CoursePoint".equals(name)) {
+						inPoint = true;
+						waypoint = "CoursePoint".equals(name);
+						position = false;
+						point.reset();
+					}
+				} else if ("Time".equals(name)) {
+					field = FIELD_TIME;
+				} else if ("LatitudeDegrees".equals(name)) {
+					field = FIELD_LAT;
+				} else if ("LongitudeDegrees".equals(name)) {
+					field = FIELD_LON;
+					position = true;
+				} else if ("AltitudeMeters".equals(name)) {
+					field = FIELD_ALTITUDE;
+				} else if ("Speed".equals(name)) {
+					field = FIELD_SPEED;
+				}
+				break;
+			case XmlPullParser.TEXT:
+				if (field != FIELD_NONE) {
+					char[] ch = xpp.getTextCharacters(holder);
+					readField(field, ch, holder[0], holder[1]);
+				}
+				break;
+			case XmlPullParser.END_TAG:
+				field = FIELD_NONE;
+				if (inPoint) {
+					String end = localName(xpp.getName());
+					if ("Trackpoint".equals(end) || "CoursePoint".equals(end)) {
+						inPoint = false;
+						if (!position) {
+							// Paused, or indoors
+						} else if (!waypoint) {
+							if (listener != null)
+								listener.onGpxPoint(point);
+						} else if (structure != null) {
+							structure.onGpxWaypoint(point);
+						}
+					}
+				}
+				break;
+			}
+			event = xpp.next();
+		}
+
+		if (listener != null)
+			listener.onGpxEnd();
+	}
+
+	private void readField(int field, char[] ch, int start, int length) {
+		switch (field) {
+		case FIELD_TIME:
+			scratch.set(ch, start, length);
+			try {
+				point.setTime(GpxTime.parse(scratch));
+			} catch (IllegalArgumentException e) {
+				point.setTime(0);
+			}
+			break;
+		case FIELD_LAT:
+			point.setLat(CharNumbers.parseDouble(scratch, ch, start, length));
+			break;
+		case FIELD_LON:
+			point.setLon(CharNumbers.parseDouble(scratch, ch, start, length));
+			break;
+		case FIELD_ALTITUDE:
+			point.setEle((float) CharNumbers.parseDouble(scratch, ch, start,
+					length));
+			break;
+		case FIELD_SPEED:
+			point.setSpeed(CharNumbers.parseDouble(scratch, ch, start, length));
+			break;
+		}
+	}
+
+	private static String localName(String name) {
+		int colon = name.indexOf(':');
+		return colon < 0 ? name : name.substring(colon + 1);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+/**
+ * Maps track time (milliseconds since the start of the track) onto
+ * System.nanoTime(). Changing the rate or pausing re-anchors the mapping at
+ * the current track position, so times that are already scheduled simply
+ * move without being recomputed.
+ *
+ * The mapping is an immutable anchor replaced as a whole, so reading the
+ * clock takes no lock; readers call it for every point read and every fix
+ * sent. Changes are serialized among themselves.
+ */
+public class PlaybackClock {
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private static final class Anchor {
+
+		final long nanos;
+		final long trackTime;
+		final float rate;
+		final boolean paused;
+
+		Anchor(long nanos, long trackTime, float rate, boolean paused) {
+			this.nanos = nanos;
+			this.trackTime = trackTime;
+			this.rate = rate;
+			this.paused = paused;
+		}
+
+		long trackTimeAt(long now) {
+			if (paused)
+				return trackTime;
+			return trackTime + trackMillis(now - nanos, rate);
+		}
+
+	}
+
+	/**
+	 * Converts real nanoseconds to track milliseconds. In double: a float
+	 * product is off by milliseconds after a few hours on one anchor.
+	 */
+	static long trackMillis(long nanos, float rate) {
+		return (long) (nanos * (double) rate / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * The inverse of {@link #trackMillis}.
+	 */
+	static long realNanos(long trackMillis, float rate) {
+		return (long) (trackMillis * NANOS_PER_MILLI / rate);
+	}
+
+	private volatile Anchor anchor = new Anchor(System.nanoTime(), 0, 1.0f,
+			false);
+
+	/**
+	 * Starts the clock at the given track time, keeping the current rate.
+	 */
+	public synchronized void start(long trackTime) {
+		anchor = new Anchor(System.nanoTime(), trackTime, anchor.rate, false);
+	}
+
+	/**
+	 * @return the current position on the track
+	 */
+	public long trackTime() {
+		return anchor.trackTimeAt(System.nanoTime());
+	}
+
+	/**
+	 * @return the System.nanoTime() at which the track time is reached, or
+	 *         Long.MAX_VALUE while paused
+	 */
+	public long deadlineNanos(long trackTime) {
+		Anchor a = anchor;
+		if (a.paused)
+			return Long.MAX_VALUE;
+		return a.nanos + realNanos(trackTime - a.trackTime, a.rate);
+	}
+
+	/**
+	 * @return a real time duration scaled by the rate, e.g. 1000ms at 2x is
+	 *         500ms
+	 */
+	public long scale(long millis) {
+		return (long) (millis / anchor.rate);
+	}
+
+	/**
+	 * @param rate
+	 *            track milliseconds per real millisecond, e.g. 48 plays an 8
+	 *            hour track in 10 minutes
+	 */
+	public synchronized void setRate(float rate) {
+		if (!(rate > 0) || Float.isInfinite(rate))
+			throw new IllegalArgumentException("Invalid playback rate:" + rate);
+		long now = System.nanoTime();
+		Anchor a = anchor;
+		anchor = new Anchor(now, a.trackTimeAt(now), rate, a.paused);
+	}
+
+	public float getRate() {
+		return anchor.rate;
+	}
+
+	public synchronized void pause() {
+		Anchor a = anchor;
+		if (!a.paused) {
+			long now = System.nanoTime();
+			anchor = new Anchor(now, a.trackTimeAt(now), a.rate, true);
+		}
+	}
+
+	public synchronized void resume() {
+		Anchor a = anchor;
+		if (a.paused)
+			anchor = new Anchor(System.nanoTime(), a.trackTime, a.rate, false);
+	}
+
+	public boolean isPaused() {
+		return anchor.paused;
+	}
+
+}
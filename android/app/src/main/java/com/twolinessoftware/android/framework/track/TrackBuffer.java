@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.util.GeoMath;
+
+/**
+ * Columnar store for decoded track points. Each column is kept in fixed size
+ * primitive chunks, so growing the track never copies the points already
+ * stored and a point costs 48 bytes instead of a GpxTrackPoint object.
+ *
+ * One thread may append while others read; readers only see points below
+ * {@link #size()}, which is published after the point has been written.
+ *
+ * When a track is played as it is read, the chunks already played can be
+ * released, so memory follows the part of the track around the playback
+ * position rather than the length of the track.
+ *
+ * A track loaded from the {@link TrackCache} reads its columns straight
+ * from the mapped file instead, see {@link #mapped}. It is read-only and
+ * costs no heap whatever its length; {@link #copy()} gives a heap track to
+ * modify.
+ */
+public class TrackBuffer {
+
+	static final int CHUNK_SHIFT = 12;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private double[][] lat = new double[0][];
+	private double[][] lon = new double[0][];
+	private float[][] ele = new float[0][];
+	private long[][] time = new long[0][];
+	private float[][] speed = new float[0][];
+	private float[][] bearing = new float[0][];
+	private float[][] hdop = new float[0][];
+
+	private volatile int size;
+
+	// Points below this have been released
+	private int first;
+
+	// A released chunk kept to be reused by the next grow(), -1 for none
+	private int spare = -1;
+
+	// Columns of a mapped track, null for a heap one
+	private final Columns columns;
+
+	public TrackBuffer() {
+		columns = null;
+	}
+
+	private TrackBuffer(Columns columns, int size) {
+		this.columns = columns;
+		this.size = size;
+	}
+
+	/**
+	 * A read-only track over columns of count values each, laid out one
+	 * after the other from the buffer's position: double lat, double lon,
+	 * long time, float ele, float speed, float bearing, float hdop. The
+	 * buffer's byte order applies; nothing is copied.
+	 */
+	public static TrackBuffer mapped(ByteBuffer buffer, int count) {
+		ByteBuffer bytes = buffer.slice().order(buffer.order());
+		Columns columns = new Columns();
+		columns.lat = column(bytes, 0, count * 8).asDoubleBuffer();
+		columns.lon = column(bytes, count * 8, count * 8).asDoubleBuffer();
+		columns.time = column(bytes, count * 16, count * 8).asLongBuffer();
+		columns.ele = column(bytes, count * 24, count * 4).asFloatBuffer();
+		columns.speed = column(bytes, count * 28, count * 4).asFloatBuffer();
+		columns.bearing = column(bytes, count * 32, count * 4).asFloatBuffer();
+		columns.hdop = column(bytes, count * 36, count * 4).asFloatBuffer();
+		return new TrackBuffer(columns, count);
+	}
+
+	private static ByteBuffer column(ByteBuffer bytes, int offset, int length) {
+		ByteBuffer view = bytes.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().order(bytes.order());
+	}
+
+	public boolean isMapped() {
+		return columns != null;
+	}
+
+	/**
+	 * @return a heap track holding the same points, from the first one not
+	 *         released
+	 */
+	public TrackBuffer copy() {
+		TrackBuffer copy = new TrackBuffer();
+		int n = size;
+		for (int i = first; i < n; i++)
+			copy.add(getLat(i), getLon(i), getEle(i), getTime(i), getSpeed(i),
+					getBearing(i), getHdop(i));
+		return copy;
+	}
+
+	public int add(double lat, double lon, float ele, long time) {
+		return add(lat, lon, ele, time, 0, 0, Float.NaN);
+	}
+
+	public int add(double lat, double lon, float ele, long time, float speed,
+			float bearing) {
+		return add(lat, lon, ele, time, speed, bearing, Float.NaN);
+	}
+
+	/**
+	 * @param hdop
+	 *            horizontal dilution of precision, NaN if unknown
+	 * @return the index of the new point
+	 */
+	public int add(double lat, double lon, float ele, long time, float speed,
+			float bearing, float hdop) {
+		writable();
+		int index = size;
+		int chunk = index >>> CHUNK_SHIFT;
+		if (chunk == this.lat.length)
+			grow();
+
+		int offset = index & CHUNK_MASK;
+		this.lat[chunk][offset] = lat;
+		this.lon[chunk][offset] = lon;
+		this.ele[chunk][offset] = ele;
+		this.time[chunk][offset] = time;
+		this.speed[chunk][offset] = speed;
+		this.bearing[chunk][offset] = bearing;
+		this.hdop[chunk][offset] = hdop;
+
+		size = index + 1;
+		return index;
+	}
+
+	public int add(GpxTrackPoint point) {
+		return add(point.getLat(), point.getLon(), point.getEle(),
+				point.getTime(), (float) point.getSpeed(),
+				(float) point.getHeading(), point.getHdop());
+	}
+
+	/**
+	 * Appends a point, computing the speed and bearing of the segment from
+	 * the last point where they were not recorded (NaN), see
+	 * {@link #updateMotion(int, int)}.
+	 *
+	 * @return the index of the new point
+	 */
+	public int addWithMotion(double lat, double lon, float ele, long time,
+			float speed, float bearing, float hdop) {
+		int last = size - 1;
+		if (last < 0) {
+			return add(lat, lon, ele, time, Float.isNaN(speed) ? 0 : speed,
+					Float.isNaN(bearing) ? 0 : bearing, hdop);
+		}
+
+		double lastLat = getLat(last);
+		double lastLon = getLon(last);
+		if (Float.isNaN(bearing))
+			bearing = (float) GeoMath.initialBearing(lastLat, lastLon, lat, lon);
+		if (Float.isNaN(speed))
+			speed = GeoMath.segmentSpeed(lastLat, lastLon, getTime(last), lat,
+					lon, time, getSpeed(last));
+		return add(lat, lon, ele, time, speed, bearing, hdop);
+	}
+
+	public int addWithMotion(GpxTrackPoint point) {
+		return addWithMotion(point.getLat(), point.getLon(), point.getEle(),
+				point.getTime(), (float) point.getSpeed(),
+				(float) point.getHeading(), point.getHdop());
+	}
+
+	/**
+	 * Recomputes the speed (m/s) and bearing (degrees) of the points in
+	 * [from, to) from the segment ending at each of them, one chunk at a
+	 * time, replacing any recorded values. The first point of the track has
+	 * neither.
+	 */
+	public void updateMotion(int from, int to) {
+		writable();
+		if (from == 0 && to > 0) {
+			setSpeed(0, 0);
+			setBearing(0, 0);
+			from = 1;
+		}
+
+		int index = from;
+		while (index < to) {
+			int chunk = index >>> CHUNK_SHIFT;
+			int offset = index & CHUNK_MASK;
+
+			if (offset == 0) {
+				// The previous point is in the previous chunk
+				int last = index - 1;
+				setBearing(index, (float) GeoMath.initialBearing(getLat(last),
+						getLon(last), getLat(index), getLon(index)));
+				setSpeed(index, GeoMath.segmentSpeed(getLat(last),
+						getLon(last), getTime(last), getLat(index),
+						getLon(index), getTime(index), getSpeed(last)));
+				index++;
+				continue;
+			}
+
+			int end = Math.min(to - (chunk << CHUNK_SHIFT), CHUNK_SIZE);
+			GeoMath.motion(lat[chunk], lon[chunk], time[chunk], speed[chunk],
+					bearing[chunk], offset, end);
+			index = (chunk << CHUNK_SHIFT) + end;
+		}
+	}
+
+	/**
+	 * Keeps the points whose flag is set and drops the others, moving the
+	 * kept ones down in order. Only for a track nothing else reads yet.
+	 *
+	 * @param keep
+	 *            one flag per point
+	 * @return the new size
+	 */
+	public int compact(boolean[] keep) {
+		writable();
+		if (first > 0)
+			throw new IllegalStateException("Track has been partly released");
+
+		int n = size;
+		int kept = 0;
+		for (int index = 0; index < n; index++) {
+			if (!keep[index])
+				continue;
+			if (kept != index) {
+				int fromChunk = index >>> CHUNK_SHIFT;
+				int fromOffset = index & CHUNK_MASK;
+				int toChunk = kept >>> CHUNK_SHIFT;
+				int toOffset = kept & CHUNK_MASK;
+				lat[toChunk][toOffset] = lat[fromChunk][fromOffset];
+				lon[toChunk][toOffset] = lon[fromChunk][fromOffset];
+				ele[toChunk][toOffset] = ele[fromChunk][fromOffset];
+				time[toChunk][toOffset] = time[fromChunk][fromOffset];
+				speed[toChunk][toOffset] = speed[fromChunk][fromOffset];
+				bearing[toChunk][toOffset] = bearing[fromChunk][fromOffset];
+				hdop[toChunk][toOffset] = hdop[fromChunk][fromOffset];
+			}
+			kept++;
+		}
+		size = kept;
+		return kept;
+	}
+
+	/**
+	 * Binary search over the time column.
+	 *
+	 * @return the first point in [from, to) at or after the time, or to if
+	 *         there is none; the times in the range must not decrease
+	 */
+	public int indexOfTime(long time, int from, int to) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getTime(mid) < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Releases the chunks that only hold points below the given index. Those
+	 * points must not be read again, neither may the track be cached. A
+	 * mapped track holds no heap, the system pages it out as needed.
+	 */
+	public void release(int before) {
+		if (before <= first || columns != null)
+			return;
+
+		int limit = Math.min(before, size) >>> CHUNK_SHIFT;
+		for (int chunk = first >>> CHUNK_SHIFT; chunk < limit; chunk++) {
+			if (spare < 0) {
+				spare = chunk;
+				continue;
+			}
+			lat[chunk] = null;
+			lon[chunk] = null;
+			ele[chunk] = null;
+			time[chunk] = null;
+			speed[chunk] = null;
+			bearing[chunk] = null;
+			hdop[chunk] = null;
+		}
+		first = Math.max(first, limit << CHUNK_SHIFT);
+	}
+
+	/**
+	 * @return the first point that has not been released
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	private void grow() {
+		int chunks = lat.length + 1;
+
+		double[][] newLat = new double[chunks][];
+		double[][] newLon = new double[chunks][];
+		float[][] newEle = new float[chunks][];
+		long[][] newTime = new long[chunks][];
+		float[][] newSpeed = new float[chunks][];
+		float[][] newBearing = new float[chunks][];
+		float[][] newHdop = new float[chunks][];
+
+		System.arraycopy(lat, 0, newLat, 0, lat.length);
+		System.arraycopy(lon, 0, newLon, 0, lon.length);
+		System.arraycopy(ele, 0, newEle, 0, ele.length);
+		System.arraycopy(time, 0, newTime, 0, time.length);
+		System.arraycopy(speed, 0, newSpeed, 0, speed.length);
+		System.arraycopy(bearing, 0, newBearing, 0, bearing.length);
+		System.arraycopy(hdop, 0, newHdop, 0, hdop.length);
+
+		int last = chunks - 1;
+		if (spare >= 0) {
+			// Played chunks are recycled instead of collected
+			newLat[last] = lat[spare];
+			newLon[last] = lon[spare];
+			newEle[last] = ele[spare];
+			newTime[last] = time[spare];
+			newSpeed[last] = speed[spare];
+			newBearing[last] = bearing[spare];
+			newHdop[last] = hdop[spare];
+			newLat[spare] = null;
+			newLon[spare] = null;
+			newEle[spare] = null;
+			newTime[spare] = null;
+			newSpeed[spare] = null;
+			newBearing[spare] = null;
+			newHdop[spare] = null;
+			spare = -1;
+		} else {
+			newLat[last] = new double[CHUNK_SIZE];
+			newLon[last] = new double[CHUNK_SIZE];
+			newEle[last] = new float[CHUNK_SIZE];
+			newTime[last] = new long[CHUNK_SIZE];
+			newSpeed[last] = new float[CHUNK_SIZE];
+			newBearing[last] = new float[CHUNK_SIZE];
+			newHdop[last] = new float[CHUNK_SIZE];
+		}
+
+		lat = newLat;
+		lon = newLon;
+		ele = newEle;
+		time = newTime;
+		speed = newSpeed;
+		bearing = newBearing;
+		hdop = newHdop;
+	}
+
+	private void writable() {
+		if (columns != null)
+			throw new IllegalStateException("Mapped track is read-only");
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double getLat(int index) {
+		if (columns != null)
+			return columns.lat.get(index);
+		return lat[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public double getLon(int index) {
+		if (columns != null)
+			return columns.lon.get(index);
+		return lon[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public float getEle(int index) {
+		if (columns != null)
+			return columns.ele.get(index);
+		return ele[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	/**
+	 * @return milliseconds since the epoch, or 0 if the point has no time
+	 */
+	public long getTime(int index) {
+		if (columns != null)
+			return columns.time.get(index);
+		return time[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public float getSpeed(int index) {
+		if (columns != null)
+			return columns.speed.get(index);
+		return speed[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public float getBearing(int index) {
+		if (columns != null)
+			return columns.bearing.get(index);
+		return bearing[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	/**
+	 * @return horizontal dilution of precision, or NaN if unknown
+	 */
+	public float getHdop(int index) {
+		if (columns != null)
+			return columns.hdop.get(index);
+		return hdop[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public void setSpeed(int index, float value) {
+		writable();
+		speed[index >>> CHUNK_SHIFT][index & CHUNK_MASK] = value;
+	}
+
+	public void setBearing(int index, float value) {
+		writable();
+		bearing[index >>> CHUNK_SHIFT][index & CHUNK_MASK] = value;
+	}
+
+	/**
+	 * Copies a point into a view object.
+	 */
+	public GpxTrackPoint get(int index, GpxTrackPoint into) {
+		into.setLat(getLat(index));
+		into.setLon(getLon(index));
+		into.setEle(getEle(index));
+		into.setTime(getTime(index));
+		into.setSpeed(getSpeed(index));
+		into.setHeading(getBearing(index));
+		into.setHdop(getHdop(index));
+		return into;
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Forward iterator over the points. A cursor can be reused with
+	 * {@link #moveTo(int)}, so walking the track allocates nothing.
+	 */
+	public class Cursor {
+
+		private int index = -1;
+		private int chunk;
+		private int offset;
+
+		public boolean next() {
+			if (index + 1 >= size)
+				return false;
+			position(index + 1);
+			return true;
+		}
+
+		/**
+		 * Positions the cursor so that the following next() returns the given
+		 * point.
+		 */
+		public void moveTo(int index) {
+			this.index = index - 1;
+		}
+
+		private void position(int index) {
+			this.index = index;
+			chunk = index >>> CHUNK_SHIFT;
+			offset = index & CHUNK_MASK;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public double lat() {
+			if (columns != null)
+				return columns.lat.get(index);
+			return lat[chunk][offset];
+		}
+
+		public double lon() {
+			if (columns != null)
+				return columns.lon.get(index);
+			return lon[chunk][offset];
+		}
+
+		public float ele() {
+			if (columns != null)
+				return columns.ele.get(index);
+			return ele[chunk][offset];
+		}
+
+		public long time() {
+			if (columns != null)
+				return columns.time.get(index);
+			return time[chunk][offset];
+		}
+
+		public float speed() {
+			if (columns != null)
+				return columns.speed.get(index);
+			return speed[chunk][offset];
+		}
+
+		public float bearing() {
+			if (columns != null)
+				return columns.bearing.get(index);
+			return bearing[chunk][offset];
+		}
+
+		public float hdop() {
+			if (columns != null)
+				return columns.hdop.get(index);
+			return hdop[chunk][offset];
+		}
+
+	}
+
+	private static class Columns {
+
+		DoubleBuffer lat;
+		DoubleBuffer lon;
+		LongBuffer time;
+		FloatBuffer ele;
+		FloatBuffer speed;
+		FloatBuffer bearing;
+		FloatBuffer hdop;
+
+	}
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.twolinessoftware.android.framework.util.Logger;
+
+/**
+ * Keeps decoded tracks as .gpxbin files so that replaying a file that has
+ * not changed skips the XML parse. An entry is valid for the source path,
+ * size and modification time it was written for.
+ *
+ * A loaded track reads its points from the mapped file, see
+ * {@link TrackBuffer#mapped}, so playback starts without copying anything.
+ *
+ * The directory is kept under a size limit: after each store the entries
+ * least recently loaded or stored are deleted until it fits. Entries are
+ * written to a temporary file of their own and renamed, so sessions storing
+ * at the same time do not see each other's partial files.
+ *
+ * File layout, little-endian:
+ *
+ * <pre>
+ * int    magic 'GPXB'
+ * int    version
+ * int    point count
+ * int    path length in bytes
+ * long   source size
+ * long   source modification time
+ * byte[] source path, UTF-8, padded to a multiple of 8
+ * double[count] lat, double[count] lon, long[count] time,
+ * float[count] ele, float[count] speed, float[count] bearing,
+ * float[count] hdop
+ * </pre>
+ */
+public class TrackCache {
+
+	private static final String LOGNAME = "Framework.TrackCache";
+
+	private static final int MAGIC = 0x42585047; // "GPXB"
+
+	// 2: speed in m/s and great circle bearing, 3: hdop, 4: sessions give
+	// untimed points a time before storing them
+	private static final int VERSION = 4;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final int POINT_SIZE = 8 + 8 + 8 + 4 + 4 + 4 + 4;
+
+	public static final String EXTENSION = ".gpxbin";
+
+	/** Track number for the points of every track in the file. */
+	public static final int ALL_TRACKS = -1;
+
+	/** About 1.3 million points. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	public TrackCache(File directory) {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            size the directory is trimmed to; the entry just stored is
+	 *            kept even if it is larger on its own
+	 */
+	public TrackCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cached track, or null if there is no valid entry for the
+	 *         current version of the source file
+	 */
+	public TrackBuffer load(File source) {
+		return load(source, ALL_TRACKS);
+	}
+
+	/**
+	 * @param track
+	 *            a single track or route of the file, numbered as by
+	 *            GpxStructureListener, or {@link #ALL_TRACKS}
+	 * @return the cached track, or null if there is no valid entry for it
+	 */
+	public TrackBuffer load(File source, int track) {
+		File file = cacheFile(source, track);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			TrackBuffer points = read(buffer, source);
+			// Recently used entries are the last ones trimmed
+			if (points != null)
+				file.setLastModified(System.currentTimeMillis());
+			return points;
+
+		} catch (IOException e) {
+			Logger.e(LOGNAME, "Unable to read " + file + ":" + e.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private TrackBuffer read(ByteBuffer buffer, File source)
+			throws UnsupportedEncodingException {
+		if (buffer.capacity() < HEADER_SIZE
+				|| buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION)
+			return null;
+
+		int count = buffer.getInt(8);
+		int pathLength = buffer.getInt(12);
+		long size = buffer.getLong(16);
+		long modified = buffer.getLong(24);
+
+		if (size != source.length() || modified != source.lastModified())
+			return null;
+
+		byte[] expected = source.getAbsolutePath().getBytes("UTF-8");
+		int columns = HEADER_SIZE + padded(pathLength);
+		if (pathLength != expected.length
+				|| buffer.capacity() != columns + (long) count * POINT_SIZE)
+			return null;
+
+		byte[] path = new byte[pathLength];
+		buffer.position(HEADER_SIZE);
+		buffer.get(path);
+		if (!Arrays.equals(path, expected))
+			return null;
+
+		// The column order of TrackBuffer.mapped()
+		buffer.position(columns);
+		return TrackBuffer.mapped(buffer, count);
+	}
+
+	/**
+	 * Writes the track for the source file, replacing any older entry. The
+	 * whole track must still be held, see {@link TrackBuffer#release(int)}.
+	 */
+	public void store(File source, TrackBuffer track) throws IOException {
+		store(source, ALL_TRACKS, track);
+	}
+
+	/**
+	 * Writes one track or route of the source file, see
+	 * {@link #load(File, int)}.
+	 */
+	public void store(File source, int number, TrackBuffer track)
+			throws IOException {
+		if (track.getFirst() > 0)
+			throw new IllegalArgumentException("Track has been partly released");
+
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory);
+
+		File file = cacheFile(source, number);
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+
+		int count = track.size();
+		byte[] path = source.getAbsolutePath().getBytes("UTF-8");
+
+		FileOutputStream out = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(
+					ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(count);
+			buffer.putInt(path.length);
+			buffer.putLong(source.length());
+			buffer.putLong(source.lastModified());
+			buffer.put(path);
+			for (int i = path.length; i < padded(path.length); i++)
+				buffer.put((byte) 0);
+
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 8);
+				buffer.putDouble(track.getLat(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 8);
+				buffer.putDouble(track.getLon(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 8);
+				buffer.putLong(track.getTime(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 4);
+				buffer.putFloat(track.getEle(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 4);
+				buffer.putFloat(track.getSpeed(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 4);
+				buffer.putFloat(track.getBearing(i));
+			}
+			for (int i = 0; i < count; i++) {
+				room(channel, buffer, 4);
+				buffer.putFloat(track.getHdop(i));
+			}
+			flush(channel, buffer);
+			written = true;
+		} finally {
+			close(out);
+			if (!written)
+				tmp.delete();
+		}
+
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Unable to write " + file);
+		}
+
+		trim(file);
+	}
+
+	/**
+	 * Deletes the least recently used entries, other than the one to keep,
+	 * until the entries fit in maxBytes. Files being written are left alone.
+	 */
+	private void trim(File keep) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File file : files)
+			total += file.length();
+		if (total <= maxBytes)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long x = a.lastModified();
+				long y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			if (total <= maxBytes)
+				break;
+			if (file.equals(keep))
+				continue;
+			long length = file.length();
+			// A mapped entry stays readable until it is unmapped
+			if (file.delete()) {
+				total -= length;
+				Logger.d(LOGNAME, "Evicted " + file.getName());
+			}
+		}
+	}
+
+	private File cacheFile(File source, int track) {
+		String path = source.getAbsolutePath();
+		String name = Integer.toHexString(path.hashCode());
+		if (track != ALL_TRACKS)
+			name += "-" + track;
+		return new File(directory, name + EXTENSION);
+	}
+
+	private static void room(FileChannel channel, ByteBuffer buffer, int bytes)
+			throws IOException {
+		if (buffer.remaining() < bytes)
+			flush(channel, buffer);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static int padded(int length) {
+		return (length + 7) & ~7;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				Logger.e(LOGNAME, "Unable to close:" + e.getMessage());
+			}
+		}
+	}
+
+}
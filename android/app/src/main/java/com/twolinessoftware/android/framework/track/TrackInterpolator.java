@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+
+/**
+ * Synthesizes fixes between two consecutive track points: position along the
+ * great circle between them, elevation, time and hdop linearly. Speed and
+ * bearing are those of the segment, i.e. of the second point.
+ */
+public class TrackInterpolator {
+
+	// Below this central angle (about 6mm) the points are treated as equal
+	private static final double MIN_ANGLE = 1e-9;
+
+	/**
+	 * @param index
+	 *            first point of the segment; index + 1 must exist
+	 * @param fraction
+	 *            0 for the first point, 1 for the second
+	 */
+	public static GpxTrackPoint interpolate(TrackBuffer track, int index,
+			double fraction, GpxTrackPoint into) {
+		int next = index + 1;
+
+		double lat1 = Math.toRadians(track.getLat(index));
+		double lon1 = Math.toRadians(track.getLon(index));
+		double lat2 = Math.toRadians(track.getLat(next));
+		double lon2 = Math.toRadians(track.getLon(next));
+
+		double cosLat1 = Math.cos(lat1);
+		double cosLat2 = Math.cos(lat2);
+
+		double x1 = cosLat1 * Math.cos(lon1);
+		double y1 = cosLat1 * Math.sin(lon1);
+		double z1 = Math.sin(lat1);
+		double x2 = cosLat2 * Math.cos(lon2);
+		double y2 = cosLat2 * Math.sin(lon2);
+		double z2 = Math.sin(lat2);
+
+		double dot = x1 * x2 + y1 * y2 + z1 * z2;
+		double angle = Math.acos(Math.max(-1.0, Math.min(1.0, dot)));
+
+		double a;
+		double b;
+		if (angle < MIN_ANGLE) {
+			a = 1 - fraction;
+			b = fraction;
+		} else {
+			double sin = Math.sin(angle);
+			a = Math.sin((1 - fraction) * angle) / sin;
+			b = Math.sin(fraction * angle) / sin;
+		}
+
+		double x = a * x1 + b * x2;
+		double y = a * y1 + b * y2;
+		double z = a * z1 + b * z2;
+
+		into.setLat(Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y))));
+		into.setLon(Math.toDegrees(Math.atan2(y, x)));
+
+		float ele1 = track.getEle(index);
+		into.setEle((float) (ele1 + (track.getEle(next) - ele1) * fraction));
+
+		long time1 = track.getTime(index);
+		into.setTime(time1 + Math.round((track.getTime(next) - time1) * fraction));
+
+		into.setSpeed(track.getSpeed(next));
+		into.setHeading(track.getBearing(next));
+
+		float hdop1 = track.getHdop(index);
+		into.setHdop((float) (hdop1 + (track.getHdop(next) - hdop1) * fraction));
+
+		return into;
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import com.twolinessoftware.android.framework.util.GeoMath;
+
+/**
+ * Drops the points of a track that do not change the route by more than a
+ * tolerance. Runs of points that stay within the tolerance of where they
+ * started, such as a stationary recorder at 1Hz, are reduced to their first
+ * and last point. What is left goes through Douglas-Peucker on the
+ * synchronized distance: a point is measured against where the simplified
+ * track would be at its time, not just against the line, so stops and
+ * changes of pace are kept as well as corners.
+ *
+ * Works on primitive arrays and an explicit stack. Douglas-Peucker takes
+ * O(n log n) time for the usual tracks, O(n^2) in the worst case.
+ */
+public class TrackSimplifier {
+
+	/**
+	 * Simplifies the whole track in place. The kept points that follow a
+	 * removed one get the speed and bearing of their new, longer segment.
+	 *
+	 * @param toleranceMeters
+	 *            how far the route may move
+	 * @return the number of points removed
+	 */
+	public static int simplify(TrackBuffer track, double toleranceMeters) {
+		int n = track.size();
+		boolean[] keep = select(track, toleranceMeters);
+
+		// Kept points that lost their predecessor, by their new index
+		boolean[] merged = new boolean[n];
+		int kept = 0;
+		boolean dropped = false;
+		for (int i = 0; i < n; i++) {
+			if (!keep[i]) {
+				dropped = true;
+				continue;
+			}
+			merged[kept] = dropped && kept > 0;
+			kept++;
+			dropped = false;
+		}
+
+		track.compact(keep);
+
+		for (int i = 1; i < kept; i++) {
+			if (!merged[i])
+				continue;
+			track.setBearing(i, (float) GeoMath.initialBearing(
+					track.getLat(i - 1), track.getLon(i - 1), track.getLat(i),
+					track.getLon(i)));
+			track.setSpeed(i, GeoMath.segmentSpeed(track.getLat(i - 1),
+					track.getLon(i - 1), track.getTime(i - 1),
+					track.getLat(i), track.getLon(i), track.getTime(i),
+					track.getSpeed(i)));
+		}
+		return n - kept;
+	}
+
+	/**
+	 * @return a flag per point, set for the points to keep
+	 */
+	public static boolean[] select(TrackBuffer track, double toleranceMeters) {
+		int n = track.size();
+		boolean[] keep = new boolean[n];
+		if (n < 3) {
+			for (int i = 0; i < n; i++)
+				keep[i] = true;
+			return keep;
+		}
+
+		double[] lat = new double[n];
+		double[] lon = new double[n];
+		long[] time = new long[n];
+		for (int i = 0; i < n; i++) {
+			lat[i] = Math.toRadians(track.getLat(i));
+			lon[i] = Math.toRadians(track.getLon(i));
+			time[i] = track.getTime(i);
+		}
+
+		// Stationary runs keep their ends, the rest are candidates
+		int[] candidates = new int[n];
+		int count = 0;
+		int start = 0;
+		candidates[count++] = 0;
+		for (int i = 1; i < n; i++) {
+			if (distance(lat, lon, start, i) <= toleranceMeters)
+				continue;
+			if (i - 1 != start)
+				candidates[count++] = i - 1;
+			candidates[count++] = i;
+			start = i;
+		}
+		if (candidates[count - 1] != n - 1)
+			candidates[count++] = n - 1;
+
+		// Douglas-Peucker over the candidates, by position in the list
+		keep[candidates[0]] = true;
+		keep[candidates[count - 1]] = true;
+
+		int[] stack = new int[2 * count];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count - 1;
+		while (top > 0) {
+			int b = stack[--top];
+			int a = stack[--top];
+			if (b - a < 2)
+				continue;
+
+			int i = candidates[a];
+			int j = candidates[b];
+			// Local scale of longitude for this segment
+			double cos = Math.cos((lat[i] + lat[j]) / 2);
+
+			double max = -1;
+			int split = -1;
+			for (int c = a + 1; c < b; c++) {
+				double d = offset(lat, lon, time, cos, i, j, candidates[c]);
+				if (d > max) {
+					max = d;
+					split = c;
+				}
+			}
+
+			if (max > toleranceMeters) {
+				keep[candidates[split]] = true;
+				stack[top++] = a;
+				stack[top++] = split;
+				stack[top++] = split;
+				stack[top++] = b;
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * @return meters between point k and where segment i-j puts it: at the
+	 *         same time when the points are timed, else at the nearest point
+	 *         of the segment
+	 */
+	private static double offset(double[] lat, double[] lon, long[] time,
+			double cos, int i, int j, int k) {
+		double x1 = 0;
+		double y1 = 0;
+		double x2 = longitudeDelta(lon[i], lon[j]) * cos;
+		double y2 = lat[j] - lat[i];
+		double xk = longitudeDelta(lon[i], lon[k]) * cos;
+		double yk = lat[k] - lat[i];
+
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double f;
+		if (time[i] != 0 && time[k] != 0 && time[j] > time[i]) {
+			f = (double) (time[k] - time[i]) / (time[j] - time[i]);
+		} else {
+			double length = dx * dx + dy * dy;
+			f = length == 0 ? 0 : ((xk - x1) * dx + (yk - y1) * dy) / length;
+		}
+		f = Math.max(0, Math.min(1, f));
+
+		double ex = xk - (x1 + f * dx);
+		double ey = yk - (y1 + f * dy);
+		return Math.sqrt(ex * ex + ey * ey) * GeoMath.EARTH_RADIUS;
+	}
+
+	private static double distance(double[] lat, double[] lon, int i, int k) {
+		double cos = Math.cos((lat[i] + lat[k]) / 2);
+		double x = longitudeDelta(lon[i], lon[k]) * cos;
+		double y = lat[k] - lat[i];
+		return Math.sqrt(x * x + y * y) * GeoMath.EARTH_RADIUS;
+	}
+
+	// Across the antimeridian the short way round
+	private static double longitudeDelta(double from, double to) {
+		double delta = to - from;
+		if (delta > Math.PI)
+			delta -= 2 * Math.PI;
+		else if (delta < -Math.PI)
+			delta += 2 * Math.PI;
+		return delta;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+/**
+ * Decimal number parsing straight from character data, used by the parsers
+ * so that no String has to be created per value.
+ */
+public class CharNumbers {
+
+	// Largest mantissa that still converts to a double exactly
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	public static double parseDouble(CharSequence value) {
+		int start = 0;
+		int end = value.length();
+
+		while (start < end && value.charAt(start) <= ' ')
+			start++;
+		while (end > start && value.charAt(end - 1) <= ' ')
+			end--;
+
+		if (start == end)
+			throw new NumberFormatException("Empty number");
+
+		int pos = start;
+		boolean negative = false;
+		char c = value.charAt(pos);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean dot = false;
+
+		for (; pos < end; pos++) {
+			c = value.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				if (mantissa < MAX_EXACT_MANTISSA / 10) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (dot)
+						exponent--;
+				} else if (!dot) {
+					exponent++;
+				}
+				digits++;
+			} else if (c == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+
+		if (digits == 0)
+			return Double.parseDouble(value.subSequence(start, end).toString());
+
+		if (pos < end) {
+			if (c != 'e' && c != 'E' || pos + 1 == end)
+				return Double.parseDouble(value.subSequence(start, end)
+						.toString());
+			pos++;
+			boolean negativeExponent = false;
+			c = value.charAt(pos);
+			if (c == '-' || c == '+') {
+				negativeExponent = c == '-';
+				pos++;
+			}
+			int e = 0;
+			for (; pos < end; pos++) {
+				c = value.charAt(pos);
+				if (c < '0' || c > '9' || e > 1000)
+					return Double.parseDouble(value.subSequence(start, end)
+							.toString());
+				e = e * 10 + (c - '0');
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		double result;
+		if (exponent == 0)
+			result = mantissa;
+		else if (exponent < 0 && exponent >= -22)
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		else if (exponent > 0 && exponent <= 22)
+			result = mantissa * POWERS_OF_TEN[exponent];
+		else
+			return Double.parseDouble(value.subSequence(start, end).toString());
+
+		return negative ? -result : result;
+	}
+
+	public static double parseDouble(char[] buf, int start, int length) {
+		return parseDouble(new CharArraySequence(buf, start, length));
+	}
+
+	/**
+	 * Parses into the given reusable sequence so that nothing is allocated on
+	 * the common path.
+	 */
+	public static double parseDouble(CharArraySequence scratch, char[] buf,
+			int start, int length) {
+		scratch.set(buf, start, length);
+		return parseDouble(scratch);
+	}
+
+	/**
+	 * Mutable window onto a character buffer.
+	 */
+	public static class CharArraySequence implements CharSequence {
+
+		private char[] buf;
+		private int start;
+		private int length;
+
+		public CharArraySequence() {
+		}
+
+		public CharArraySequence(char[] buf, int start, int length) {
+			set(buf, start, length);
+		}
+
+		public void set(char[] buf, int start, int length) {
+			this.buf = buf;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return buf[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new String(buf, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			return new String(buf, start, length);
+		}
+
+	}
+
+}
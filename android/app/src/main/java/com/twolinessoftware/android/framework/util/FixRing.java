@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue of scheduled fixes between one producer thread and
+ * one consumer thread. A slot is a send time, a stream and a point index in
+ * primitive arrays, so passing a fix allocates nothing and takes no lock.
+ *
+ * Only one thread may call {@link #offer}, and only one other thread
+ * {@link #drain}; the size methods may be called from anywhere.
+ */
+public class FixRing {
+
+	/**
+	 * Receives drained fixes, in the order they were offered.
+	 */
+	public interface Handler {
+
+		void onFix(long time, int stream, int index);
+
+	}
+
+	private final int mask;
+
+	private final long[] times;
+	private final int[] streams;
+	private final int[] indexes;
+
+	// Next slot to write, published after the slot has been written
+	private final AtomicLong tail = new AtomicLong();
+
+	// Next slot to read, published after the slot has been read
+	private final AtomicLong head = new AtomicLong();
+
+	// The producer's last view of head, to avoid reading it on every offer
+	private long cachedHead;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	public FixRing(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid capacity:" + capacity);
+
+		int n = Integer.highestOneBit(capacity);
+		if (n < capacity)
+			n <<= 1;
+
+		mask = n - 1;
+		times = new long[n];
+		streams = new int[n];
+		indexes = new int[n];
+	}
+
+	/**
+	 * Producer side.
+	 *
+	 * @return false if the ring is full
+	 */
+	public boolean offer(long time, int stream, int index) {
+		long t = tail.get();
+		if (t - cachedHead > mask) {
+			cachedHead = head.get();
+			if (t - cachedHead > mask)
+				return false;
+		}
+
+		int slot = (int) (t & mask);
+		times[slot] = time;
+		streams[slot] = stream;
+		indexes[slot] = index;
+
+		// A volatile write, so a consumer about to sleep either sees the fix
+		// or is seen sleeping, see SendLocationWorkerQueue
+		tail.set(t + 1);
+		return true;
+	}
+
+	/**
+	 * Consumer side. Hands over every fix offered so far.
+	 *
+	 * @return the number of fixes drained
+	 */
+	public int drain(Handler handler) {
+		long h = head.get();
+		long t = tail.get();
+		if (h == t)
+			return 0;
+
+		for (long i = h; i < t; i++) {
+			int slot = (int) (i & mask);
+			handler.onFix(times[slot], streams[slot], indexes[slot]);
+		}
+		head.lazySet(t);
+		return (int) (t - h);
+	}
+
+	public int size() {
+		// Read head first, so the difference is never negative
+		long h = head.get();
+		return (int) (tail.get() - h);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+/**
+ * Distances, bearings and speeds on the earth for coordinates in degrees.
+ * Everything works on primitives, and {@link #motion} runs over whole
+ * columns of points at once.
+ */
+public class GeoMath {
+
+	/** Mean earth radius in meters, as used by haversine. */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	// WGS84 ellipsoid
+	private static final double WGS84_A = 6378137.0;
+	private static final double WGS84_F = 1 / 298.257223563;
+	private static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+
+	private static final int VINCENTY_ITERATIONS = 100;
+
+	/**
+	 * Great circle distance on a sphere, within about 0.5% of the ellipsoid.
+	 *
+	 * @return meters
+	 */
+	public static double haversine(double lat1, double lon1, double lat2,
+			double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double sinDPhi = Math.sin((phi2 - phi1) / 2);
+		double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+
+		double h = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2)
+				* sinDLambda * sinDLambda;
+		return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1.0, h)));
+	}
+
+	/**
+	 * Distance on the WGS84 ellipsoid by Vincenty's inverse formula, accurate
+	 * to within a millimeter. Falls back to {@link #haversine} for the nearly
+	 * antipodal points where the iteration does not converge.
+	 *
+	 * @return meters
+	 */
+	public static double vincenty(double lat1, double lon1, double lat2,
+			double lon2) {
+		double l = Math.toRadians(lon2 - lon1);
+		double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat1)));
+		double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat2)));
+		double sinU1 = Math.sin(u1);
+		double cosU1 = Math.cos(u1);
+		double sinU2 = Math.sin(u2);
+		double cosU2 = Math.cos(u2);
+
+		double lambda = l;
+		for (int i = 0; i < VINCENTY_ITERATIONS; i++) {
+			double sinLambda = Math.sin(lambda);
+			double cosLambda = Math.cos(lambda);
+			double a = cosU2 * sinLambda;
+			double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+			double sinSigma = Math.sqrt(a * a + b * b);
+			if (sinSigma == 0)
+				return 0;
+
+			double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+			double sigma = Math.atan2(sinSigma, cosSigma);
+			double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+			double cos2Alpha = 1 - sinAlpha * sinAlpha;
+			// On the equator cos2Alpha is 0
+			double cos2SigmaM = cos2Alpha == 0 ? 0 : cosSigma - 2 * sinU1
+					* sinU2 / cos2Alpha;
+			double c = WGS84_F / 16 * cos2Alpha
+					* (4 + WGS84_F * (4 - 3 * cos2Alpha));
+
+			double previous = lambda;
+			lambda = l + (1 - c) * WGS84_F * sinAlpha
+					* (sigma + c * sinSigma
+							* (cos2SigmaM + c * cosSigma
+									* (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+			if (Math.abs(lambda - previous) < 1e-12) {
+				double uSquared = cos2Alpha
+						* (WGS84_A * WGS84_A - WGS84_B * WGS84_B)
+						/ (WGS84_B * WGS84_B);
+				double bigA = 1 + uSquared / 16384
+						* (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+				double bigB = uSquared / 1024
+						* (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+				double deltaSigma = bigB * sinSigma
+						* (cos2SigmaM + bigB / 4
+								* (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+										- bigB / 6 * cos2SigmaM
+										* (-3 + 4 * sinSigma * sinSigma)
+										* (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+				return WGS84_B * bigA * (sigma - deltaSigma);
+			}
+		}
+		return haversine(lat1, lon1, lat2, lon2);
+	}
+
+	/**
+	 * @return the initial great circle bearing from the first point to the
+	 *         second in degrees clockwise from north, in [0, 360)
+	 */
+	public static double initialBearing(double lat1, double lon1,
+			double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double dLambda = Math.toRadians(lon2 - lon1);
+		double cosPhi2 = Math.cos(phi2);
+
+		double y = Math.sin(dLambda) * cosPhi2;
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosPhi2
+				* Math.cos(dLambda);
+		double degrees = Math.toDegrees(Math.atan2(y, x));
+		return degrees < 0 ? degrees + 360 : degrees;
+	}
+
+	/**
+	 * Speed over the great circle between two timestamped points.
+	 *
+	 * @param time1
+	 *            milliseconds since the epoch, 0 for no time
+	 * @param previous
+	 *            returned when the points do not have a usable time delta
+	 * @return meters per second
+	 */
+	public static float segmentSpeed(double lat1, double lon1, long time1,
+			double lat2, double lon2, long time2, float previous) {
+		if (time1 == 0 || time2 <= time1)
+			return previous;
+		return (float) (haversine(lat1, lon1, lat2, lon2) * 1000 / (time2 - time1));
+	}
+
+	/**
+	 * Computes the speed and bearing of the segment ending at each point in
+	 * [from, to), i.e. from point i - 1 to point i. from must be at least 1.
+	 * Where the time delta is unusable the previous point's speed is carried
+	 * forward.
+	 */
+	public static void motion(double[] lat, double[] lon, long[] time,
+			float[] speed, float[] bearing, int from, int to) {
+		for (int i = from; i < to; i++) {
+			bearing[i] = (float) initialBearing(lat[i - 1], lon[i - 1],
+					lat[i], lon[i]);
+			speed[i] = segmentSpeed(lat[i - 1], lon[i - 1], time[i - 1],
+					lat[i], lon[i], time[i], speed[i - 1]);
+		}
+	}
+
+}
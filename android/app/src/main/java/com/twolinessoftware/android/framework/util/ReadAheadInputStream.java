@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream on its own thread, at most chunkCount chunks ahead
+ * of the reader. Used to inflate compressed input while the parser works on
+ * what has already been inflated.
+ *
+ * The source is not closed, only read until the end or until this stream
+ * is closed; once {@link #close} returns the source is no longer touched,
+ * so the caller can go on using it. Always close this stream, even after
+ * an error, or the reading thread waits for room forever.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final int END = -1;
+
+	private static final class Chunk {
+
+		final byte[] data;
+		int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+
+	}
+
+	private final InputStream source;
+
+	// Chunks read from the source, in order, then one with length END
+	private final BlockingQueue<Chunk> filled;
+
+	// Chunks the reader has finished with
+	private final BlockingQueue<Chunk> free;
+
+	private final Thread thread;
+
+	// Set by the reading thread before it queues the END chunk
+	private volatile IOException error;
+
+	private volatile boolean closed;
+
+	private Chunk current;
+	private int position;
+
+	public ReadAheadInputStream(InputStream source, int chunkSize,
+			int chunkCount, String name) {
+		if (chunkSize <= 0 || chunkCount <= 0)
+			throw new IllegalArgumentException("Invalid chunks:" + chunkCount
+					+ "x" + chunkSize);
+
+		this.source = source;
+		// Room for every chunk and the END one, so the reading thread only
+		// ever waits for a free chunk
+		filled = new ArrayBlockingQueue<Chunk>(chunkCount + 1);
+		free = new ArrayBlockingQueue<Chunk>(chunkCount);
+		for (int i = 0; i < chunkCount; i++)
+			free.add(new Chunk(chunkSize));
+
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				fill();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void fill() {
+		Chunk end = new Chunk(0);
+		end.length = END;
+		try {
+			while (!closed) {
+				Chunk chunk = free.take();
+				int length = 0;
+				int read = 0;
+				while (length < chunk.data.length
+						&& (read = source.read(chunk.data, length,
+								chunk.data.length - length)) != -1) {
+					length += read;
+				}
+				chunk.length = length;
+				if (length > 0)
+					filled.put(chunk);
+				if (read == -1)
+					break;
+			}
+		} catch (InterruptedException e) {
+			// Not expected, close() wakes the thread with an empty chunk
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			filled.offer(end);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!next())
+			return -1;
+		return current.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!next())
+			return -1;
+
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return current != null && current.length != END ? current.length
+				- position : 0;
+	}
+
+	/**
+	 * Makes sure current has data left.
+	 *
+	 * @return false at the end of the source
+	 */
+	private boolean next() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (current != null && current.length == END)
+			return end();
+		if (current != null && position < current.length)
+			return true;
+
+		if (current != null)
+			free.offer(current);
+		try {
+			current = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		position = 0;
+		return current.length != END || end();
+	}
+
+	private boolean end() throws IOException {
+		if (error != null)
+			throw error;
+		return false;
+	}
+
+	/**
+	 * Stops the reading thread and waits for it to let go of the source. The
+	 * thread is not interrupted, which would close an interruptible source.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		// Wakes the thread if it waits for a free chunk; an empty one
+		// makes it check closed without reading
+		free.offer(new Chunk(0));
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel holding entries of a time and three ints (a stream, a
+ * point index and an offset). Entries live in parallel primitive arrays and
+ * are linked into the bucket of their tick, so scheduling and cancelling are
+ * O(1) and nothing is allocated per entry once the arrays have grown.
+ *
+ * Times are in any unit as long as the tick length uses the same one.
+ * Entries more than a rotation ahead share a bucket with nearer ones and are
+ * left there until their round comes. Not thread safe.
+ */
+public class TimerWheel {
+
+	/**
+	 * Receives expired entries. Entries come out tick by tick, and in the
+	 * order they were scheduled within a tick.
+	 */
+	public interface Handler {
+
+		void onExpired(long time, int stream, int index, int offset);
+
+	}
+
+	private static final int NONE = -1;
+
+	private final long tickLength;
+	private final int mask;
+
+	private final int[] heads;
+	private final int[] tails;
+
+	// Entry slots
+	private long[] times;
+	private int[] streams;
+	private int[] indexes;
+	private int[] offsets;
+	private int[] buckets;
+	private int[] next;
+	private int[] prev;
+
+	private int free = NONE;
+	private int used;
+	private int size;
+
+	// The next tick to expire
+	private long tick;
+
+	/**
+	 * @param bucketCount
+	 *            rounded up to a power of two; a rotation is tickLength *
+	 *            bucketCount long
+	 * @param capacity
+	 *            initial number of entries, grown as needed
+	 */
+	public TimerWheel(long tickLength, int bucketCount, int capacity) {
+		if (tickLength <= 0 || bucketCount <= 0 || bucketCount > 1 << 30 || capacity <= 0)
+			throw new IllegalArgumentException("Invalid timer wheel");
+
+		int n = Integer.highestOneBit(bucketCount);
+		if (n < bucketCount)
+			n <<= 1;
+
+		this.tickLength = tickLength;
+		mask = n - 1;
+		heads = new int[n];
+		tails = new int[n];
+		Arrays.fill(heads, NONE);
+		Arrays.fill(tails, NONE);
+
+		times = new long[capacity];
+		streams = new int[capacity];
+		indexes = new int[capacity];
+		offsets = new int[capacity];
+		buckets = new int[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+	}
+
+	/**
+	 * @return a handle for {@link #cancel(int)}, valid until the entry
+	 *         expires or is cancelled
+	 */
+	public int schedule(long time, int stream, int index, int offset) {
+		int slot = allocate();
+		times[slot] = time;
+		streams[slot] = stream;
+		indexes[slot] = index;
+		offsets[slot] = offset;
+
+		// Entries that are already due go into the tick expired next
+		link(slot, (int) (Math.max(tickOf(time), tick) & mask));
+
+		size++;
+		return slot;
+	}
+
+	public void cancel(int handle) {
+		unlink(handle);
+	}
+
+	/**
+	 * Removes every entry of a stream. This walks all the entries, it is
+	 * meant for stopping a stream rather than for the steady state.
+	 *
+	 * @return the number of entries removed
+	 */
+	public int cancelStream(int stream) {
+		int removed = 0;
+		for (int bucket = 0; bucket <= mask; bucket++) {
+			int slot = heads[bucket];
+			while (slot != NONE) {
+				int following = next[slot];
+				if (streams[slot] == stream) {
+					unlink(slot);
+					removed++;
+				}
+				slot = following;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Expires every entry due at or before now.
+	 *
+	 * @return the number of entries expired
+	 */
+	public int expire(long now, Handler handler) {
+		// Entries scheduled behind the wheel, e.g. once pollEarliest() has
+		// moved it on, wait in the current tick; that one is always searched
+		long last = Math.max(tickOf(now), tick);
+
+		// After a long gap one pass over the buckets finds everything due
+		long end = Math.min(last, tick + mask);
+
+		int expired = 0;
+		for (long t = tick; t <= end && size > 0; t++) {
+			int slot = heads[(int) (t & mask)];
+			while (slot != NONE) {
+				int following = next[slot];
+				long time = times[slot];
+				if (time <= now) {
+					int stream = streams[slot];
+					int index = indexes[slot];
+					int offset = offsets[slot];
+					unlink(slot);
+					handler.onExpired(time, stream, index, offset);
+					expired++;
+				}
+				slot = following;
+			}
+		}
+
+		// The current tick may still hold entries due later in it
+		tick = last;
+		return expired;
+	}
+
+	/**
+	 * @return the earliest time due within the current rotation, the end of
+	 *         the rotation if nothing is, or Long.MAX_VALUE when empty. Entries
+	 *         further out are not searched for, a caller sleeping until the
+	 *         returned time wakes up at least once per rotation instead.
+	 */
+	public long nextTime() {
+		if (size == 0)
+			return Long.MAX_VALUE;
+
+		for (long t = tick; t <= tick + mask; t++) {
+			long earliest = Long.MAX_VALUE;
+			for (int slot = heads[(int) (t & mask)]; slot != NONE; slot = next[slot]) {
+				if (tickOf(times[slot]) <= t)
+					earliest = Math.min(earliest, times[slot]);
+			}
+			if (earliest != Long.MAX_VALUE)
+				return earliest;
+		}
+		return (tick + mask + 1) * tickLength;
+	}
+
+	/**
+	 * Removes the earliest entry whether it is due or not, and moves the
+	 * wheel on to its tick. Finding it is cheap while entries are less than a
+	 * rotation apart, and a walk over all of them otherwise.
+	 *
+	 * @return false if the wheel is empty
+	 */
+	public boolean pollEarliest(Handler handler) {
+		if (size == 0)
+			return false;
+
+		int earliest = NONE;
+		for (long t = tick; t <= tick + mask && earliest == NONE; t++) {
+			for (int slot = heads[(int) (t & mask)]; slot != NONE; slot = next[slot]) {
+				if (tickOf(times[slot]) <= t
+						&& (earliest == NONE || times[slot] < times[earliest]))
+					earliest = slot;
+			}
+		}
+		if (earliest == NONE) {
+			for (int bucket = 0; bucket <= mask; bucket++) {
+				for (int slot = heads[bucket]; slot != NONE; slot = next[slot]) {
+					if (earliest == NONE || times[slot] < times[earliest])
+						earliest = slot;
+				}
+			}
+		}
+
+		long time = times[earliest];
+		int stream = streams[earliest];
+		int index = indexes[earliest];
+		int offset = offsets[earliest];
+		unlink(earliest);
+		tick = Math.max(tick, tickOf(time));
+		handler.onExpired(time, stream, index, offset);
+		return true;
+	}
+
+	/**
+	 * Moves the wheel to a new current time, e.g. when the clock driving it
+	 * starts over, and files the pending entries again relative to it.
+	 */
+	public void reset(long now) {
+		int[] pending = new int[size];
+		int n = 0;
+		for (int bucket = 0; bucket <= mask; bucket++) {
+			for (int slot = heads[bucket]; slot != NONE; slot = next[slot]) {
+				pending[n++] = slot;
+			}
+		}
+		Arrays.fill(heads, NONE);
+		Arrays.fill(tails, NONE);
+		tick = tickOf(now);
+
+		for (int i = 0; i < n; i++) {
+			int slot = pending[i];
+			link(slot, (int) (Math.max(tickOf(times[slot]), tick) & mask));
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(heads, NONE);
+		Arrays.fill(tails, NONE);
+		free = NONE;
+		used = 0;
+		size = 0;
+	}
+
+	private long tickOf(long time) {
+		// Rounds down for negative times as well
+		long t = time / tickLength;
+		return (time < 0 && t * tickLength != time) ? t - 1 : t;
+	}
+
+	private int allocate() {
+		if (free != NONE) {
+			int slot = free;
+			free = next[slot];
+			return slot;
+		}
+		if (used == times.length)
+			grow();
+		return used++;
+	}
+
+	private void link(int slot, int bucket) {
+		buckets[slot] = bucket;
+		next[slot] = NONE;
+		prev[slot] = tails[bucket];
+		if (tails[bucket] != NONE)
+			next[tails[bucket]] = slot;
+		else
+			heads[bucket] = slot;
+		tails[bucket] = slot;
+	}
+
+	private void unlink(int slot) {
+		int bucket = buckets[slot];
+		int before = prev[slot];
+		int after = next[slot];
+		if (before != NONE)
+			next[before] = after;
+		else
+			heads[bucket] = after;
+		if (after != NONE)
+			prev[after] = before;
+		else
+			tails[bucket] = before;
+
+		// Free slots are chained through next
+		next[slot] = free;
+		free = slot;
+		size--;
+	}
+
+	private void grow() {
+		int capacity = times.length * 2;
+		times = Arrays.copyOf(times, capacity);
+		streams = Arrays.copyOf(streams, capacity);
+		indexes = Arrays.copyOf(indexes, capacity);
+		offsets = Arrays.copyOf(offsets, capacity);
+		buckets = Arrays.copyOf(buckets, capacity);
+		next = Arrays.copyOf(next, capacity);
+		prev = Arrays.copyOf(prev, capacity);
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.location.Location;
+
+import com.twolinessoftware.android.framework.service.comms.TrackDecoders;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.track.TrackCache;
+import com.twolinessoftware.android.framework.util.Logger;
+
+public class PlaybackSessionTest {
+
+    // More than the session holds before releasing played points
+    private static final int POINTS = 300000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> errors = new ArrayList<String>();
+
+    private final PlaybackSession.Callback callback = new PlaybackSession.Callback() {
+        @Override
+        public void onSessionError(PlaybackSession session, String message) {
+            errors.add(message);
+        }
+    };
+
+    private static class CountingSink implements LocationSink {
+
+        int count;
+
+        @Override
+        public synchronized void setTestProviderLocation(String provider, Location location) {
+            count++;
+            notifyAll();
+        }
+
+        synchronized boolean await(int count, long timeoutMillis) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (this.count < count && System.currentTimeMillis() < end) {
+                wait(Math.max(1, end - System.currentTimeMillis()));
+            }
+            return this.count >= count;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Logger.setLevel(Logger.LEVEL.none);
+    }
+
+    @Test
+    public void simplifiesALongTrackPlayedPastWhileReading() throws IOException, InterruptedException {
+        File source = straightLine(folder.newFile("line.csv"), POINTS);
+
+        CountingSink sink = new CountingSink();
+        SendLocationWorkerQueue queue = new SendLocationWorkerQueue(new PlaybackMetrics());
+        // A second of track per microsecond: playback passes the points as
+        // soon as they are read
+        queue.setPlaybackRate(1e9f);
+        queue.start(SendLocationWorkerQueue.MODE_TIMESTAMPS, 0);
+        queue.startClock(0);
+
+        PlaybackSession session = new PlaybackSession(1, new ProviderProfile[] { ProviderProfile.defaults("gps") },
+                queue, new PlaybackFeeder(queue), sink, new LocationPool(), callback, PlaybackMode.once, 0, 10,
+                TrackCache.ALL_TRACKS);
+        try {
+            session.play(source, new TrackCache(folder.newFolder("cache")), TrackDecoders.defaults(GpxParserType.sax));
+
+            assertEquals(new ArrayList<String>(), errors);
+            // The line is simplified to its two ends, both played
+            assertTrue(sink.await(2, 5000));
+        } finally {
+            session.stop();
+            queue.reset();
+        }
+    }
+
+    private static File straightLine(File file, int count) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write("time,lat,lon\n");
+            for (int i = 0; i < count; i++) {
+                writer.write((1500000000000L + 1000L * i) + "," + (45 + i * 1e-6) + ",-75\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import android.location.Location;
+
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackCache;
+
+public class SendLocationWorkerQueueTest {
+
+    private static final long INTERVAL_MILLIS = 100;
+
+    private static final int POINTS = 6;
+
+    private static class RecordingSink implements LocationSink {
+
+        final List<String> providers = new ArrayList<String>();
+        final List<Long> times = new ArrayList<Long>();
+
+        @Override
+        public synchronized void setTestProviderLocation(String provider, Location location) {
+            providers.add(provider);
+            times.add(System.nanoTime());
+            notifyAll();
+        }
+
+        synchronized void await(int count, long timeoutMillis) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (providers.size() < count && System.currentTimeMillis() < end) {
+                wait(Math.max(1, end - System.currentTimeMillis()));
+            }
+        }
+    }
+
+    @Test
+    public void fixedIntervalSendsEveryProviderOfAPointTogether() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        LocationPool pool = new LocationPool();
+        ProviderProfile gps = ProviderProfile.defaults("gps");
+        ProviderProfile fused = ProviderProfile.defaults("fused");
+        SendLocationWorkerQueue queue = new SendLocationWorkerQueue(new PlaybackMetrics());
+        PlaybackSession session = new PlaybackSession(1, new ProviderProfile[] { gps, fused }, queue,
+                new PlaybackFeeder(queue), sink, pool, null, PlaybackMode.once, 0, 0, TrackCache.ALL_TRACKS);
+
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i < POINTS; i++)
+            track.add(45 + i * 1e-4, -75, 0, 1000L * i, 0, 0, Float.NaN);
+        int first = queue.register(new SendLocationWorker(sink, pool, session, track, gps, false));
+        int second = queue.register(new SendLocationWorker(sink, pool, session, track, fused, false));
+
+        SendLocationWorkerQueue.Producer producer = queue.newProducer();
+        for (int i = 0; i < POINTS; i++) {
+            producer.schedule(first, i, 1000L * i);
+            producer.schedule(second, i, 1000L * i);
+        }
+
+        queue.start(INTERVAL_MILLIS);
+        try {
+            sink.await(2 * POINTS, 4 * POINTS * INTERVAL_MILLIS);
+        } finally {
+            producer.close();
+            queue.reset();
+        }
+
+        assertEquals(2 * POINTS, sink.providers.size());
+        long interval = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+        for (int i = 0; i < POINTS; i++) {
+            // Both providers get the point in the same send
+            assertNotEquals(sink.providers.get(2 * i), sink.providers.get(2 * i + 1));
+            long apart = sink.times.get(2 * i + 1) - sink.times.get(2 * i);
+            assertTrue("Fixes of point " + i + " " + apart + "ns apart", apart < interval / 2);
+        }
+
+        // One interval per point, not per fix
+        long elapsed = sink.times.get(2 * POINTS - 1) - sink.times.get(0);
+        assertTrue("Sent over " + elapsed + "ns", elapsed < (POINTS - 1) * interval * 3 / 2);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import android.location.Location;
+
+import com.sun.management.ThreadMXBean;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackCache;
+
+public class SendLocationWorkerTest {
+
+	private static final int FIXES = 100000;
+
+	private static class CountingSink implements LocationSink {
+
+		int count;
+
+		@Override
+		public void setTestProviderLocation(String provider, Location location) {
+			count++;
+		}
+	}
+
+	@Test
+	public void sendsWithoutAllocating() {
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		CountingSink sink = new CountingSink();
+		LocationPool pool = new LocationPool();
+		ProviderProfile profile = ProviderProfile.defaults("gps");
+		SendLocationWorkerQueue queue = new SendLocationWorkerQueue(new PlaybackMetrics());
+		PlaybackSession session = new PlaybackSession(1, new ProviderProfile[] { profile }, queue,
+				new PlaybackFeeder(queue), sink, pool, null, PlaybackMode.once, 0, 0, TrackCache.ALL_TRACKS);
+		SendLocationWorker worker = new SendLocationWorker(sink, pool, session, track(1000), profile, false);
+
+		// Fills the pool, creates the interpolated fix and lets the JIT settle
+		sendAll(worker);
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		sendAll(worker);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertEquals(4 * FIXES, sink.count);
+		// Less than a byte per fix, i.e. only the measurement itself
+		assertTrue(allocated + " bytes for " + 2 * FIXES + " fixes", allocated < FIXES);
+	}
+
+	/**
+	 * Sends FIXES recorded points and as many interpolated fixes.
+	 */
+	private static void sendAll(SendLocationWorker worker) {
+		for (int i = 0; i < FIXES; i++) {
+			int index = i % 999;
+			worker.send(index, 0);
+			worker.send(index, 500);
+		}
+	}
+
+	private static TrackBuffer track(int count) {
+		TrackBuffer track = new TrackBuffer();
+		for (int i = 0; i < count; i++)
+			track.add(45 + i * 1e-5, -75 - i * 1e-5, i % 100, 1000L * i,
+					i % 7, i % 360, i % 3 == 0 ? Float.NaN : i % 5);
+		return track;
+	}
+
+}
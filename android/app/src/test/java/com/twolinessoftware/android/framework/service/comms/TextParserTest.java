@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.twolinessoftware.android.framework.service.comms.csv.CsvParser;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxStructureListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.service.comms.nmea.NmeaParser;
+
+public class TextParserTest {
+
+	/**
+	 * Records the callbacks in order.
+	 */
+	private static class Recorder implements GpxSaxParserListener,
+			GpxStructureListener {
+
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void onGpxStart() {
+			events.add("start");
+		}
+
+		@Override
+		public void onGpxTrack(int track, boolean route) {
+			events.add("track " + track + (route ? " route" : ""));
+		}
+
+		@Override
+		public void onGpxSegment(int track, int segment) {
+			events.add("segment " + track + " " + segment);
+		}
+
+		@Override
+		public void onGpxPoint(GpxTrackPoint item) {
+			events.add("point");
+		}
+
+		@Override
+		public void onGpxWaypoint(GpxTrackPoint point) {
+			events.add("waypoint");
+		}
+
+		@Override
+		public void onGpxEnd() {
+			events.add("end");
+		}
+
+		@Override
+		public void onGpxError(String message) {
+			events.add("error " + message);
+		}
+	}
+
+	@Test
+	public void csvIsOneTrack() {
+		Recorder recorder = new Recorder();
+		new CsvParser(recorder).parse("time,lat,lon\n"
+				+ "2009-05-09T19:26:23Z,51.0519,-114.0863\n"
+				+ "2009-05-09T19:26:24Z,51.0520,-114.0864\n");
+
+		assertEquals(Arrays.asList("start", "track 0", "segment 0 0", "point",
+				"point", "end"), recorder.events);
+	}
+
+	@Test
+	public void nmeaIsOneTrack() {
+		Recorder recorder = new Recorder();
+		new NmeaParser(recorder).parse(
+				sentence("GPRMC,192623.00,A,5103.114,N,11405.178,W,0.0,0.0,090509,,")
+				+ sentence("GPRMC,192624.00,A,5103.120,N,11405.184,W,0.0,0.0,090509,,"));
+
+		assertEquals(Arrays.asList("start", "track 0", "segment 0 0", "point",
+				"point", "end"), recorder.events);
+	}
+
+	@Test
+	public void emptyFileIsAnEmptyTrack() {
+		Recorder recorder = new Recorder();
+		new CsvParser(recorder).parse("");
+
+		assertEquals(Arrays.asList("start", "track 0", "segment 0 0", "end"),
+				recorder.events);
+	}
+
+	private static String sentence(String body) {
+		int checksum = 0;
+		for (int i = 0; i < body.length(); i++) {
+			checksum ^= body.charAt(i);
+		}
+		return String.format("$%s*%02X\r\n", body, checksum);
+	}
+
+}
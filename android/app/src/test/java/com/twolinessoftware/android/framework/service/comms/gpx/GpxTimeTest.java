@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.service.comms.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class GpxTimeTest {
+
+	// 2009-05-09T19:26:23Z
+	private static final long T = 1241897183000L;
+
+	private static final Object[][] VALID = {
+			{ "2009-05-09T19:26:23Z", T },
+			{ "2009-05-09t19:26:23z", T },
+			{ "  2009-05-09T19:26:23Z\n", T },
+			// No zone is UTC
+			{ "2009-05-09T19:26:23", T },
+			{ "2009-05-09T19:26:23.250Z", T + 250 },
+			{ "2009-05-09T19:26:23,250Z", T + 250 },
+			{ "2009-05-09T19:26:23.5Z", T + 500 },
+			{ "2009-05-09T19:26:23.05Z", T + 50 },
+			// Digits past milliseconds are dropped
+			{ "2009-05-09T19:26:23.1239Z", T + 123 },
+			{ "2009-05-09T13:26:23-06:00", T },
+			{ "2009-05-09T13:26:23-0600", T },
+			{ "2009-05-09T13:26:23-06", T },
+			{ "2009-05-10T00:56:23+05:30", T },
+			{ "2009-05-10T00:56:23+0530", T },
+			{ "2009-05-09T19:26:23+00:00", T },
+			{ "2009-05-09T13:26:23.250-06:00", T + 250 },
+			// Offsets move across midnight
+			{ "2009-05-09T23:30:00-01:00", 1241913600000L + 30 * 60000 },
+			{ "2016-02-29T23:59:59Z", 1456790399000L },
+			{ "2000-01-01T00:00:00Z", 946684800000L },
+			{ "1970-01-01T00:00:00Z", 0L },
+			{ "1969-12-31T23:59:59Z", -1000L },
+	};
+
+	private static final String[] INVALID = {
+			"",
+			"2009-05-09",
+			"2009-05-09 19:26:23Z",
+			"2009/05/09T19:26:23Z",
+			"2009-5-09T19:26:23Z",
+			"2009-05-09T19:26Z",
+			"2009-13-09T19:26:23Z",
+			"2009-00-09T19:26:23Z",
+			"2009-05-32T19:26:23Z",
+			"2009-05-09T19:61:23Z",
+			"2009-05-09T19:26:61Z",
+			"2009-05-09T19:26:23.Z",
+			"2009-05-09T19:26:23+",
+			"2009-05-09T19:26:23+1",
+			"2009-05-09T19:26:23+01:",
+			"2009-05-09T19:26:23+01:3",
+			"2009-05-09T19:26:23ZZ",
+			"2009-05-09T19:26:23 Z",
+			"2009-05-09T19:26:2aZ",
+			"20a9-05-09T19:26:23Z",
+	};
+
+	@Test
+	public void parsesValidTimes() {
+		for (Object[] row : VALID)
+			assertEquals((String) row[0], ((Long) row[1]).longValue(),
+					GpxTime.parse((String) row[0]));
+	}
+
+	@Test
+	public void rejectsInvalidTimes() {
+		for (String value : INVALID) {
+			try {
+				GpxTime.parse(value);
+				fail("Accepted " + value);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void keepsDaysApartAcrossCalls() {
+		// The remembered day must not leak into the next one
+		assertEquals(1241913600000L - 1000,
+				GpxTime.parse("2009-05-09T23:59:59Z"));
+		assertEquals(1241913600000L, GpxTime.parse("2009-05-10T00:00:00Z"));
+		assertEquals(1241913600000L - 1000,
+				GpxTime.parse("2009-05-09T23:59:59Z"));
+		assertEquals(1241913600000L + 24 * 3600000L - 1000,
+				GpxTime.parse("2009-05-10T23:59:59Z"));
+		assertEquals(T, GpxTime.parse("2009-05-09T19:26:23Z"));
+	}
+
+	@Test
+	public void formatRoundTrips() {
+		long[] times = { 0, -1000, T + 250, 1456790399000L, 946684800000L };
+		for (long time : times)
+			assertEquals(time, GpxTime.parse(GpxTime.format(time)));
+		assertEquals("2009-05-09T19:26:23.250Z", GpxTime.format(T + 250));
+	}
+
+	@Test
+	public void daysFromCivil() {
+		assertEquals(0, GpxTime.daysFromCivil(1970, 1, 1));
+		assertEquals(-1, GpxTime.daysFromCivil(1969, 12, 31));
+		assertEquals(10957, GpxTime.daysFromCivil(2000, 1, 1));
+		assertEquals(16860, GpxTime.daysFromCivil(2016, 2, 29));
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PlaybackClockTest {
+
+	@Test
+	public void deadlineIsTheInverseOfTrackTime() {
+		PlaybackClock clock = new PlaybackClock();
+		clock.setRate(4);
+		clock.start(1000);
+
+		long deadline = clock.deadlineNanos(5000);
+		long ahead = deadline - System.nanoTime();
+		// 4000 track ms at 4x is a real second
+		assertTrue(ahead <= TimeUnit.SECONDS.toNanos(1));
+		assertTrue(ahead > TimeUnit.MILLISECONDS.toNanos(900));
+		assertEquals(250, clock.scale(1000));
+	}
+
+	@Test
+	public void pauseHoldsThePosition() throws InterruptedException {
+		PlaybackClock clock = new PlaybackClock();
+		clock.setRate(1000);
+		clock.start(0);
+		clock.pause();
+
+		long held = clock.trackTime();
+		Thread.sleep(20);
+		assertEquals(held, clock.trackTime());
+		assertEquals(Long.MAX_VALUE, clock.deadlineNanos(held + 1));
+		assertTrue(clock.isPaused());
+
+		// Resumes from where it was, not from where it would be
+		clock.resume();
+		long resumed = clock.trackTime();
+		assertTrue(resumed >= held && resumed < held + 10000);
+	}
+
+	@Test
+	public void rateChangesKeepThePosition() throws InterruptedException {
+		PlaybackClock clock = new PlaybackClock();
+		clock.start(0);
+		Thread.sleep(20);
+		long before = clock.trackTime();
+		clock.setRate(0.001f);
+		long after = clock.trackTime();
+
+		assertTrue(after >= before && after <= before + 5);
+		assertEquals(0.001f, clock.getRate(), 0);
+	}
+
+	@Test
+	public void staysExactOverLongRuns() {
+		long day = TimeUnit.HOURS.toNanos(24);
+		assertEquals(TimeUnit.HOURS.toMillis(10),
+				PlaybackClock.trackMillis(TimeUnit.HOURS.toNanos(10), 1));
+		assertEquals(TimeUnit.NANOSECONDS.toMillis(day),
+				PlaybackClock.trackMillis(day + 999999, 1));
+		assertEquals(48 * TimeUnit.NANOSECONDS.toMillis(day),
+				PlaybackClock.trackMillis(day, 48));
+
+		// Each is the other's inverse to the millisecond
+		long[] elapsed = { 1, 12345678901L, day, 3 * day + 7 };
+		float[] rates = { 0.25f, 1, 3, 48 };
+		for (long nanos : elapsed) {
+			for (float rate : rates) {
+				long millis = PlaybackClock.trackMillis(nanos, rate);
+				long back = PlaybackClock.realNanos(millis, rate);
+				assertTrue(back <= nanos);
+				assertEquals(millis, PlaybackClock.trackMillis(back, rate), 1);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidRates() {
+		new PlaybackClock().setRate(Float.NaN);
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.twolinessoftware.android.framework.util.Logger;
+
+public class TrackCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		Logger.setLevel(Logger.LEVEL.none);
+		directory = new File(folder.getRoot(), "cache");
+	}
+
+	@Test
+	public void loadsWhatWasStored() throws IOException {
+		File source = source("a.gpx", "x");
+		TrackBuffer track = track(10000);
+
+		TrackCache cache = new TrackCache(directory);
+		cache.store(source, track);
+		TrackBuffer loaded = cache.load(source);
+
+		assertNotNull(loaded);
+		assertTrue(loaded.isMapped());
+		assertEquals(track.size(), loaded.size());
+		for (int i = 0; i < track.size(); i++)
+			assertSame(track, i, loaded, i);
+
+		TrackBuffer.Cursor cursor = loaded.cursor();
+		cursor.moveTo(TrackBuffer.CHUNK_SIZE + 1);
+		assertTrue(cursor.next());
+		assertEquals(track.getTime(TrackBuffer.CHUNK_SIZE + 1), cursor.time());
+		assertEquals(track.getLat(TrackBuffer.CHUNK_SIZE + 1), cursor.lat(), 0);
+	}
+
+	@Test
+	public void keepsTracksApart() throws IOException {
+		File source = source("a.gpx", "x");
+		TrackCache cache = new TrackCache(directory);
+		cache.store(source, 0, track(10));
+		cache.store(source, 1, track(20));
+
+		assertEquals(10, cache.load(source, 0).size());
+		assertEquals(20, cache.load(source, 1).size());
+		assertNull(cache.load(source, 2));
+		assertNull(cache.load(source));
+	}
+
+	@Test
+	public void missesWhenTheSourceChanged() throws IOException {
+		File source = source("a.gpx", "x");
+		TrackCache cache = new TrackCache(directory);
+		cache.store(source, track(10));
+
+		source("a.gpx", "xy");
+		assertNull(cache.load(source));
+	}
+
+	@Test
+	public void mappedTrackIsReadOnly() throws IOException {
+		File source = source("a.gpx", "x");
+		TrackCache cache = new TrackCache(directory);
+		cache.store(source, track(10));
+		TrackBuffer loaded = cache.load(source);
+
+		try {
+			loaded.add(1, 2, 3, 4);
+			fail("Added to a mapped track");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+
+		// Nothing to release, every point stays readable
+		loaded.release(5);
+		assertEquals(0, loaded.getFirst());
+
+		TrackBuffer copy = loaded.copy();
+		assertFalse(copy.isMapped());
+		copy.setSpeed(3, 42);
+		assertEquals(42, copy.getSpeed(3), 0);
+		assertSame(loaded, 9, copy, 9);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws IOException {
+		File a = source("a.gpx", "a");
+		File b = source("b.gpx", "b");
+		File c = source("c.gpx", "c");
+
+		// One entry of 1000 points is about 40kB
+		TrackCache cache = new TrackCache(directory, 100 * 1024);
+		cache.store(a, track(1000));
+		cache.store(b, track(1000));
+		age(a, 2000);
+		age(b, 1000);
+
+		// Loading a makes b the least recently used
+		assertNotNull(cache.load(a));
+		cache.store(c, track(1000));
+
+		assertNotNull(cache.load(a));
+		assertNull(cache.load(b));
+		assertNotNull(cache.load(c));
+	}
+
+	@Test
+	public void keepsAnEntryLargerThanTheLimit() throws IOException {
+		File source = source("a.gpx", "x");
+		TrackCache cache = new TrackCache(directory, 1024);
+		cache.store(source, track(1000));
+		assertNotNull(cache.load(source));
+	}
+
+	@Test
+	public void leavesFilesBeingWrittenAlone() throws IOException {
+		File a = source("a.gpx", "a");
+		File b = source("b.gpx", "b");
+
+		TrackCache cache = new TrackCache(directory, 1024);
+		cache.store(a, track(1000));
+		// Another session's entry, half written
+		File partial = File.createTempFile("x" + TrackCache.EXTENSION, ".tmp",
+				directory);
+		cache.store(b, track(1000));
+
+		assertTrue(partial.exists());
+		assertNull(cache.load(a));
+		assertNotNull(cache.load(b));
+	}
+
+	@Test
+	public void leavesNoTemporaryFiles() throws IOException {
+		TrackCache cache = new TrackCache(directory);
+		cache.store(source("a.gpx", "a"), track(10));
+		cache.store(source("a.gpx", "a"), 0, track(10));
+
+		for (String name : directory.list())
+			assertTrue(name, name.endsWith(TrackCache.EXTENSION));
+	}
+
+	private File source(String name, String content) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Sets the modification time of the source's entries into the past.
+	 */
+	private void age(File source, long millis) {
+		String prefix = Integer.toHexString(source.getAbsolutePath().hashCode());
+		for (File file : directory.listFiles()) {
+			if (file.getName().startsWith(prefix))
+				file.setLastModified(file.lastModified() - millis);
+		}
+	}
+
+	private static TrackBuffer track(int count) {
+		TrackBuffer track = new TrackBuffer();
+		for (int i = 0; i < count; i++)
+			track.add(45 + i * 1e-5, -75 - i * 1e-5, i % 100, 1000L * i,
+					i % 7, i % 360, i % 3 == 0 ? Float.NaN : i % 5);
+		return track;
+	}
+
+	private static void assertSame(TrackBuffer expected, int i,
+			TrackBuffer actual, int j) {
+		assertEquals(expected.getLat(i), actual.getLat(j), 0);
+		assertEquals(expected.getLon(i), actual.getLon(j), 0);
+		assertEquals(expected.getEle(i), actual.getEle(j), 0);
+		assertEquals(expected.getTime(i), actual.getTime(j));
+		assertEquals(expected.getSpeed(i), actual.getSpeed(j), 0);
+		assertEquals(expected.getBearing(i), actual.getBearing(j), 0);
+		assertEquals(expected.getHdop(i), actual.getHdop(j), 0);
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class FixRingTest {
+
+	private static final int FIXES = 2000000;
+
+	/**
+	 * Checks that fixes arrive once each and in order; every field is
+	 * derived from the sequence, to catch torn slots.
+	 */
+	private static class Checker implements FixRing.Handler {
+
+		long expected;
+
+		@Override
+		public void onFix(long time, int stream, int index) {
+			if (time != expected || stream != (int) (expected % 100)
+					|| index != (int) (expected >>> 7))
+				throw new AssertionError("Expected fix " + expected
+						+ " but got " + time + "/" + stream + "/" + index);
+			expected++;
+		}
+	}
+
+	@Test
+	public void roundsCapacityUp() {
+		assertEquals(1, new FixRing(1).capacity());
+		assertEquals(8, new FixRing(5).capacity());
+		assertEquals(1024, new FixRing(1024).capacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyCapacity() {
+		new FixRing(0);
+	}
+
+	@Test
+	public void refusesOffersWhenFull() {
+		FixRing ring = new FixRing(4);
+		for (int i = 0; i < 4; i++)
+			assertTrue(ring.offer(i, (int) (i % 100), i >>> 7));
+		assertFalse(ring.offer(4, 4, 0));
+		assertEquals(4, ring.size());
+
+		Checker checker = new Checker();
+		assertEquals(4, ring.drain(checker));
+		assertTrue(ring.isEmpty());
+		assertEquals(0, ring.drain(checker));
+
+		// Wraps around
+		for (long i = 4; i < 7; i++)
+			assertTrue(ring.offer(i, (int) (i % 100), (int) (i >>> 7)));
+		assertEquals(3, ring.drain(checker));
+		assertEquals(7, checker.expected);
+	}
+
+	@Test
+	public void passesEveryFixOnceInOrderBetweenThreads() throws Exception {
+		stress(new FixRing(64));
+	}
+
+	@Test
+	public void passesEveryFixThroughASingleSlot() throws Exception {
+		// Producer and consumer hand over every slot
+		stress(new FixRing(1));
+	}
+
+	private static void stress(final FixRing ring) throws Exception {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (long n = 0; n < FIXES; n++) {
+					while (!ring.offer(n, (int) (n % 100), (int) (n >>> 7))) {
+						if (failure.get() != null)
+							return;
+						Thread.yield();
+					}
+				}
+			}
+		});
+
+		final Checker checker = new Checker();
+		Thread consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (checker.expected < FIXES) {
+						int size = ring.size();
+						if (size < 0 || size > ring.capacity())
+							throw new AssertionError("Size " + size);
+						if (ring.drain(checker) == 0)
+							Thread.yield();
+					}
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			}
+		});
+
+		producer.start();
+		consumer.start();
+		producer.join(60000);
+		consumer.join(60000);
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+		assertFalse(producer.isAlive() || consumer.isAlive());
+		assertEquals(FIXES, checker.expected);
+		assertTrue(ring.isEmpty());
+	}
+
+}
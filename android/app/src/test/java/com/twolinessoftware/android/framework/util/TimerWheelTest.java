@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.framework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	private static class Recorder implements TimerWheel.Handler {
+
+		final List<long[]> expired = new ArrayList<long[]>();
+
+		@Override
+		public void onExpired(long time, int stream, int index, int offset) {
+			expired.add(new long[] { time, stream, index, offset });
+		}
+
+		long time(int i) {
+			return expired.get(i)[0];
+		}
+
+		int index(int i) {
+			return (int) expired.get(i)[2];
+		}
+	}
+
+	@Test
+	public void expiresInTimeOrderTickByTick() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		wheel.schedule(35, 0, 0, 0);
+		wheel.schedule(12, 0, 1, 0);
+		wheel.schedule(18, 0, 2, 0);
+		wheel.schedule(25, 0, 3, 0);
+
+		assertEquals(0, wheel.expire(11, recorder));
+		assertEquals(2, wheel.expire(19, recorder));
+		assertEquals(1, wheel.expire(30, recorder));
+		assertEquals(1, wheel.expire(35, recorder));
+
+		long[] times = { 12, 18, 25, 35 };
+		for (int i = 0; i < times.length; i++)
+			assertEquals(times[i], recorder.time(i));
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	public void keepsScheduleOrderWithinATick() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		for (int i = 0; i < 5; i++)
+			wheel.schedule(50, 1, i, 0);
+
+		assertEquals(5, wheel.expire(50, recorder));
+		for (int i = 0; i < 5; i++)
+			assertEquals(i, recorder.index(i));
+	}
+
+	@Test
+	public void leavesLaterEntriesOfTheCurrentTick() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		wheel.schedule(51, 0, 0, 0);
+		wheel.schedule(58, 0, 1, 0);
+
+		assertEquals(1, wheel.expire(53, recorder));
+		assertEquals(1, wheel.size());
+		assertEquals(58, wheel.nextTime());
+		assertEquals(1, wheel.expire(58, recorder));
+	}
+
+	@Test
+	public void waitsForLaterRounds() {
+		// One rotation is 160
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		wheel.schedule(20, 0, 0, 0);
+		wheel.schedule(180, 0, 1, 0);
+
+		assertEquals(1, wheel.expire(100, recorder));
+		assertEquals(180, wheel.nextTime());
+		assertEquals(0, wheel.expire(170, recorder));
+		assertEquals(1, wheel.expire(180, recorder));
+	}
+
+	@Test
+	public void findsEverythingAfterALongGap() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		for (int i = 0; i < 100; i++)
+			wheel.schedule(i * 37, 0, i, 0);
+
+		assertEquals(100, wheel.expire(100000, recorder));
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	public void expiresEntriesScheduledBehindTheWheel() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+
+		// Polling moves the wheel on to 500 whatever the time is
+		wheel.schedule(500, 0, 0, 0);
+		assertTrue(wheel.pollEarliest(recorder));
+
+		wheel.schedule(20, 0, 1, 0);
+		assertEquals(20, wheel.nextTime());
+		assertEquals(1, wheel.expire(100, recorder));
+		assertEquals(1, recorder.index(1));
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	public void pollsEarliestWhetherDueOrNot() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		wheel.schedule(900, 0, 0, 0);
+		wheel.schedule(5000, 0, 1, 0);
+		wheel.schedule(300, 0, 2, 0);
+
+		while (wheel.pollEarliest(recorder)) {
+			// Drain
+		}
+		assertEquals(300, recorder.time(0));
+		assertEquals(900, recorder.time(1));
+		assertEquals(5000, recorder.time(2));
+		assertFalse(wheel.pollEarliest(recorder));
+	}
+
+	@Test
+	public void cancelsEntriesAndStreams() {
+		TimerWheel wheel = new TimerWheel(10, 16, 2);
+		Recorder recorder = new Recorder();
+		int handle = wheel.schedule(10, 0, 0, 0);
+		wheel.schedule(10, 1, 1, 0);
+		wheel.schedule(20, 1, 2, 0);
+		wheel.schedule(400, 1, 3, 0);
+		wheel.schedule(30, 2, 4, 0);
+
+		wheel.cancel(handle);
+		assertEquals(3, wheel.cancelStream(1));
+		assertEquals(1, wheel.size());
+
+		assertEquals(1, wheel.expire(1000, recorder));
+		assertEquals(4, recorder.index(0));
+
+		// Freed slots are reused
+		for (int i = 0; i < 10; i++)
+			wheel.schedule(1000 + i, 3, i, 0);
+		assertEquals(10, wheel.expire(2000, recorder));
+	}
+
+	@Test
+	public void resetFilesEntriesAgain() {
+		TimerWheel wheel = new TimerWheel(10, 16, 4);
+		Recorder recorder = new Recorder();
+		wheel.expire(5000, recorder);
+		wheel.schedule(5100, 0, 0, 0);
+
+		// The clock starts over, the entry is now far ahead
+		wheel.reset(0);
+		assertEquals(0, wheel.expire(100, recorder));
+		assertEquals(1, wheel.expire(5100, recorder));
+	}
+
+	@Test
+	public void matchesASortedScheduleAtRandom() {
+		Random random = new Random(42);
+		TimerWheel wheel = new TimerWheel(10, 64, 16);
+		Recorder recorder = new Recorder();
+		List<Long> pending = new ArrayList<Long>();
+
+		long now = 0;
+		for (int round = 0; round < 2000; round++) {
+			for (int i = random.nextInt(5); i > 0; i--) {
+				// Some due already, some several rotations out
+				long time = now - 50 + random.nextInt(3000);
+				wheel.schedule(time, 0, 0, 0);
+				pending.add(time);
+			}
+			now += random.nextInt(40);
+
+			// As in fixed interval playback, moves the wheel past now
+			if (round % 50 == 0 && !pending.isEmpty()) {
+				wheel.pollEarliest(recorder);
+				long time = recorder.time(recorder.expired.size() - 1);
+				assertEquals(Collections.min(pending).longValue(), time);
+				pending.remove(time);
+			}
+
+			int before = recorder.expired.size();
+			wheel.expire(now, recorder);
+			for (int i = before; i < recorder.expired.size(); i++) {
+				long time = recorder.time(i);
+				assertTrue(time <= now);
+				assertTrue(pending.remove(time));
+			}
+			for (long time : pending)
+				assertTrue("Missed " + time + " at " + now, time > now);
+			assertEquals(pending.size(), wheel.size());
+		}
+	}
+
+}
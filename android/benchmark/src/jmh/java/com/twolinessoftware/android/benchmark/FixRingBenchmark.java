@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.twolinessoftware.android.framework.util.FixRing;
+
+/**
+ * Handing fixes from a reading thread to the queue thread: the lock-free
+ * FixRing against a lock around a deque of one object per fix, which is
+ * what scheduling under the queue lock amounted to.
+ *
+ * Each group runs one producer and one consumer thread concurrently. The
+ * consumer checks that every fix arrives once and in order, so the run
+ * doubles as a stress test of the ring; a lost, repeated or torn fix fails
+ * the benchmark. The scores are offers and polls per second, including the
+ * ones that found the ring full or empty.
+ */
+@BenchmarkMode(Mode.Throughput)
+public class FixRingBenchmark {
+
+	private static final int CAPACITY = 1024;
+
+	private static void check(long expected, long time, int stream, int index) {
+		// Every field is derived from the sequence, to catch torn slots
+		if (time != expected || stream != (int) (expected % 100)
+				|| index != (int) (expected >>> 7))
+			throw new IllegalStateException("Expected fix " + expected
+					+ " but got " + time + "/" + stream + "/" + index);
+	}
+
+	@State(Scope.Group)
+	public static class Ring implements FixRing.Handler {
+
+		final FixRing ring = new FixRing(CAPACITY);
+
+		// Owned by the producer thread
+		long produced;
+
+		// Owned by the consumer thread
+		long consumed;
+
+		@Override
+		public void onFix(long time, int stream, int index) {
+			check(consumed++, time, stream, index);
+		}
+	}
+
+	@State(Scope.Group)
+	public static class Locked {
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		final ArrayDeque<Fix> queue = new ArrayDeque<Fix>(CAPACITY);
+
+		long produced;
+
+		long consumed;
+	}
+
+	static final class Fix {
+
+		final long time;
+		final int stream;
+		final int index;
+
+		Fix(long time, int stream, int index) {
+			this.time = time;
+			this.stream = stream;
+			this.index = index;
+		}
+	}
+
+	@Benchmark
+	@Group("ring")
+	@GroupThreads(1)
+	public boolean ringOffer(Ring state) {
+		long n = state.produced;
+		if (!state.ring.offer(n, (int) (n % 100), (int) (n >>> 7)))
+			return false;
+		state.produced = n + 1;
+		return true;
+	}
+
+	@Benchmark
+	@Group("ring")
+	@GroupThreads(1)
+	public int ringDrain(Ring state) {
+		return state.ring.drain(state);
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public boolean lockedOffer(Locked state) {
+		long n = state.produced;
+		state.lock.lock();
+		try {
+			// Same bound as the ring
+			if (state.queue.size() == CAPACITY)
+				return false;
+			state.queue.add(new Fix(n, (int) (n % 100), (int) (n >>> 7)));
+		} finally {
+			state.lock.unlock();
+		}
+		state.produced = n + 1;
+		return true;
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public int lockedDrain(Locked state) {
+		int drained = 0;
+		state.lock.lock();
+		try {
+			Fix fix;
+			while ((fix = state.queue.poll()) != null) {
+				check(state.consumed++, fix.time, fix.stream, fix.index);
+				drained++;
+			}
+		} finally {
+			state.lock.unlock();
+		}
+		return drained;
+	}
+
+}
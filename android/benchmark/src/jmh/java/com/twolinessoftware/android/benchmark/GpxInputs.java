@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Benchmark input documents. The sample track is held in memory so that
+ * disk access is not part of the measurement; the synthetic 1M point track
+ * (about 300MB) is streamed from a generated temp file.
+ */
+public class GpxInputs {
+
+	public static final String SAMPLE = "sample";
+
+	public static final String SYNTHETIC_1M = "synthetic-1m";
+
+	public static final int SYNTHETIC_1M_POINTS = 1000000;
+
+	private final String name;
+
+	private byte[] document;
+
+	private File file;
+
+	public GpxInputs(String name) throws IOException {
+		this.name = name;
+		if (SAMPLE.equals(name))
+			document = readFully(sampleFile());
+		else if (SYNTHETIC_1M.equals(name))
+			file = SyntheticGpx.file(SYNTHETIC_1M_POINTS);
+		else
+			throw new IllegalArgumentException("Unknown input:" + name);
+	}
+
+	public InputStream open() throws IOException {
+		if (document != null)
+			return new ByteArrayInputStream(document);
+		return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+	}
+
+	public File file() {
+		return SAMPLE.equals(name) ? sampleFile() : file;
+	}
+
+	public static File sampleFile() {
+		return new File(System.getProperty("gpx.sample",
+				"../test/sample_track.gpx"));
+	}
+
+	public static byte[] readFully(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) file.length());
+			byte[] buf = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+}
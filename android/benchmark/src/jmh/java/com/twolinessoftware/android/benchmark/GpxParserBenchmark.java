@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+
+/**
+ * Compares the streaming GPX parsers. The "points" counter reports parsed
+ * track points per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class GpxParserBenchmark {
+
+	@Param({ "sax", "pull" })
+	public String parser;
+
+	@Param({ GpxInputs.SAMPLE, GpxInputs.SYNTHETIC_1M })
+	public String input;
+
+	private GpxInputs inputs;
+
+	@Setup
+	public void setup() throws IOException {
+		inputs = new GpxInputs(input);
+	}
+
+	@Benchmark
+	public void parse(final PointCounter counter, final Blackhole bh)
+			throws IOException {
+		GpxSaxParserListener listener = new GpxSaxParserListener() {
+
+			@Override
+			public void onGpxPoint(GpxTrackPoint item) {
+				counter.points++;
+				bh.consume(item.getLat());
+				bh.consume(item.getLon());
+				bh.consume(item.getEle());
+				bh.consume(item.getTime());
+			}
+
+			@Override
+			public void onGpxError(String message) {
+				throw new IllegalStateException(message);
+			}
+
+			@Override
+			public void onGpxStart() {
+			}
+
+			@Override
+			public void onGpxEnd() {
+			}
+		};
+
+		InputStream in = inputs.open();
+		try {
+			GpxParserType.valueOf(parser).newParser(listener).parse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class PointCounter {
+
+		public long points;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			points = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.benchmark.GpxParserBenchmark.PointCounter;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParser;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackSegment;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackSegments;
+
+/**
+ * The XStream GpxParser binds the whole document at once, so it only runs
+ * on the sample track; the synthetic 1M point track does not fit in a
+ * default heap this way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class GpxXStreamParserBenchmark {
+
+	@Param({ GpxInputs.SAMPLE })
+	public String input;
+
+	private GpxInputs inputs;
+
+	@Setup
+	public void setup() throws IOException {
+		inputs = new GpxInputs(input);
+	}
+
+	@Benchmark
+	public void parse(final PointCounter counter, final Blackhole bh)
+			throws IOException {
+		GpxParserListener listener = new GpxParserListener() {
+
+			@Override
+			public void onGpxRoute(GpxTrackSegments items) {
+				for (GpxTrackSegment segment : items.getTrackSegments()) {
+					for (GpxTrackPoint point : segment.getTrackPoints()) {
+						counter.points++;
+						bh.consume(point);
+					}
+				}
+			}
+
+			@Override
+			public void onGpxError(String message) {
+				throw new IllegalStateException(message);
+			}
+		};
+
+		InputStream in = inputs.open();
+		try {
+			new GpxParser(listener).parse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+}
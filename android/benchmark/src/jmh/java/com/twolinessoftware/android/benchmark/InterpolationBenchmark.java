@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.benchmark.GpxParserBenchmark.PointCounter;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackInterpolator;
+
+/**
+ * The platform independent part of the per fix send path: walking the
+ * track and interpolating fixes into a reused point, as SendLocationWorker
+ * does. Run with -PjmhProfilers=gc, gc.alloc.rate.norm should stay at zero.
+ * The "points" counter reports fixes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class InterpolationBenchmark {
+
+	@Param({ "100", "1000" })
+	public long intervalMillis;
+
+	private TrackBuffer track;
+
+	private final GpxTrackPoint fix = new GpxTrackPoint();
+
+	@Setup
+	public void setup() throws IOException {
+		track = new TrackBuffer();
+		InputStream in = new GpxInputs(GpxInputs.SAMPLE).open();
+		try {
+			GpxParserType.pull.newParser(new GpxSaxParserListener() {
+
+				@Override
+				public void onGpxPoint(GpxTrackPoint item) {
+					track.addWithMotion(item);
+				}
+
+				@Override
+				public void onGpxError(String message) {
+					throw new IllegalStateException(message);
+				}
+
+				@Override
+				public void onGpxStart() {
+				}
+
+				@Override
+				public void onGpxEnd() {
+				}
+			}).parse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public void interpolate(PointCounter counter, Blackhole bh) {
+		for (int i = 0; i + 1 < track.size(); i++) {
+			long duration = track.getTime(i + 1) - track.getTime(i);
+			for (long offset = 0; offset < duration; offset += intervalMillis) {
+				TrackInterpolator.interpolate(track, i, (double) offset
+						/ duration, fix);
+				bh.consume(fix.getLat());
+				bh.consume(fix.getLon());
+				counter.points++;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * The planar heading and "speed" PlaybackService used before GeoMath, kept
+ * as the baseline for TrackMathBenchmark.
+ */
+public class JtsTrackMath {
+
+	public static double calculateHeadingFromPreviousPoint(
+			GpxTrackPoint currentPoint, GpxTrackPoint lastPoint) {
+
+		double angleBetweenPoints = Math.atan2(
+				(lastPoint.getLon() - currentPoint.getLon()),
+				(lastPoint.getLat() - currentPoint.getLat()));
+		return Math.toDegrees(angleBetweenPoints);
+	}
+
+	public static double calculateSpeedFromPreviousPoint(
+			GpxTrackPoint currentPoint, GpxTrackPoint lastPoint) {
+
+		Coordinate startCoordinate = new Coordinate(lastPoint.getLon(),
+				lastPoint.getLat());
+		Coordinate endCoordinate = new Coordinate(currentPoint.getLon(),
+				currentPoint.getLat());
+		double distance = startCoordinate.distance(endCoordinate) * 100000;
+		return distance;
+
+	}
+
+}
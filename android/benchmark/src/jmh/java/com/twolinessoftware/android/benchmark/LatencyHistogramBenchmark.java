@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.twolinessoftware.android.framework.util.LatencyHistogram;
+
+/**
+ * What the queue thread pays per fix for the playback metrics: one
+ * histogram record of a lateness in microseconds, against reading the
+ * clock it is measured with. Values spread over the first 60s so every
+ * bucket range is hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+
+	private static final long MAX_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+	private final LatencyHistogram histogram = new LatencyHistogram(MAX_MICROS);
+
+	private long value = 1;
+
+	@Benchmark
+	public void record() {
+		// Cheap pseudo-random walk over the range
+		value = value * 6364136223846793005L + 1442695040888963407L;
+		histogram.record((value >>> 40) % MAX_MICROS);
+	}
+
+	@Benchmark
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+}
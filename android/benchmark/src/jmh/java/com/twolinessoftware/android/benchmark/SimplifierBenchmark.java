@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.track.TrackSimplifier;
+
+/**
+ * Selecting the points to keep with TrackSimplifier, on the stationary
+ * heavy sample and on the 1M point synthetic track. How many points each
+ * tolerance removes is printed after the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SimplifierBenchmark {
+
+	@Param({ GpxInputs.SAMPLE, GpxInputs.SYNTHETIC_1M })
+	public String input;
+
+	@Param({ "1", "5", "20" })
+	public double toleranceMeters;
+
+	private TrackBuffer track;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		track = new TrackBuffer();
+		InputStream in = new GpxInputs(input).open();
+		try {
+			GpxParserType.pull.newParser(new GpxSaxParserListener() {
+
+				@Override
+				public void onGpxPoint(GpxTrackPoint item) {
+					track.addWithMotion(item);
+				}
+
+				@Override
+				public void onGpxError(String message) {
+					throw new IllegalStateException(message);
+				}
+
+				@Override
+				public void onGpxStart() {
+				}
+
+				@Override
+				public void onGpxEnd() {
+				}
+			}).parse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public boolean[] select() {
+		return TrackSimplifier.select(track, toleranceMeters);
+	}
+
+	@TearDown(Level.Trial)
+	public void report() {
+		boolean[] keep = TrackSimplifier.select(track, toleranceMeters);
+		int kept = 0;
+		for (boolean k : keep) {
+			if (k)
+				kept++;
+		}
+		System.out.println(input + " at " + toleranceMeters + "m keeps "
+				+ kept + " of " + track.size() + " points");
+	}
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+
+/**
+ * Generates large, deterministic tracks shaped like test/sample_track.gpx: a
+ * 1 Hz recording wandering around Calgary with trekbuddy rmc extensions.
+ * The same kind of track can be written in the other formats TrackDecoders
+ * reads, see {@link #FORMATS}.
+ */
+public class SyntheticGpx {
+
+	private static final long START_TIME = 1241897183000L; // 2009-05-09T19:26:23Z
+
+	private static final double START_LAT = 51.05197012424469;
+	private static final double START_LON = -114.08636569976807;
+
+	/** File extensions of the formats, gpx first. */
+	public static final String[] FORMATS = { "gpx", "kml", "tcx", "geojson",
+			"nmea", "csv" };
+
+	private final Random random = new Random(42);
+
+	private double lat = START_LAT;
+	private double lon = START_LON;
+	private double ele = 1048.0;
+	private double course = 0;
+	private double speed = 0;
+	private long time = START_TIME;
+
+	/**
+	 * Writes the track to a file in the temp directory, reusing an earlier
+	 * copy when one exists.
+	 */
+	public static File file(int count) throws IOException {
+		return file(count, "gpx");
+	}
+
+	/**
+	 * As {@link #file(int)}, in one of the {@link #FORMATS}.
+	 */
+	public static File file(int count, String format) throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"),
+				"synthetic-" + count + "." + format);
+		if (!file.exists() || file.length() == 0) {
+			File tmp = new File(file.getPath() + ".tmp");
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmp), "UTF-8"), 64 * 1024);
+			try {
+				new SyntheticGpx().write(out, count, format);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file))
+				throw new IOException("Unable to create " + file);
+		}
+		return file;
+	}
+
+	/**
+	 * {@link #file(int, String)} compressed, as a ".gz" file or a ".zip"
+	 * archive holding it, reusing an earlier copy when one exists.
+	 */
+	public static File compressedFile(int count, String format,
+			boolean zip) throws IOException {
+		File plain = file(count, format);
+		File file = new File(plain.getPath() + (zip ? ".zip" : ".gz"));
+		if (!file.exists() || file.length() == 0) {
+			File tmp = new File(file.getPath() + ".tmp");
+			OutputStream out;
+			if (zip) {
+				ZipOutputStream archive = new ZipOutputStream(
+						new FileOutputStream(tmp));
+				archive.putNextEntry(new ZipEntry(plain.getName()));
+				out = archive;
+			} else {
+				out = new GZIPOutputStream(new FileOutputStream(tmp),
+						64 * 1024);
+			}
+			InputStream in = new FileInputStream(plain);
+			try {
+				byte[] buf = new byte[64 * 1024];
+				int read;
+				while ((read = in.read(buf)) != -1)
+					out.write(buf, 0, read);
+			} finally {
+				in.close();
+				out.close();
+			}
+			if (!tmp.renameTo(file))
+				throw new IOException("Unable to create " + file);
+		}
+		return file;
+	}
+
+	public static GpxTrackPoint[] points(int count) {
+		SyntheticGpx track = new SyntheticGpx();
+		GpxTrackPoint[] points = new GpxTrackPoint[count];
+		for (int i = 0; i < count; i++) {
+			track.step();
+			GpxTrackPoint point = new GpxTrackPoint();
+			point.setLat(track.lat);
+			point.setLon(track.lon);
+			point.setEle((float) track.ele);
+			points[i] = point;
+		}
+		return points;
+	}
+
+	public void write(Writer out, int count, String format) throws IOException {
+		if ("gpx".equals(format))
+			write(out, count);
+		else if ("kml".equals(format))
+			writeKml(out, count);
+		else if ("tcx".equals(format))
+			writeTcx(out, count);
+		else if ("geojson".equals(format))
+			writeGeoJson(out, count);
+		else if ("nmea".equals(format))
+			writeNmea(out, count);
+		else if ("csv".equals(format))
+			writeCsv(out, count);
+		else
+			throw new IllegalArgumentException("Unknown format:" + format);
+	}
+
+	public void write(Writer out, int count) throws IOException {
+		SimpleDateFormat format = isoFormat();
+
+		out.write("<?xml version='1.0' encoding='UTF-8' ?>\n");
+		out.write("<gpx version=\"1.1\" creator=\"SyntheticGpx\" xmlns=\"http://www.topografix.com/GPX/1/1\" xmlns:rmc=\"urn:net:trekbuddy:1.0:nmea:rmc\">\n");
+		out.write("\t<trk>\n\t\t<trkseg>\n");
+		for (int i = 0; i < count; i++) {
+			step();
+			out.write("\t\t\t<trkpt lat=\"" + lat + "\" lon=\"" + lon + "\">\n");
+			out.write("\t\t\t\t<ele>" + Math.round(ele) + ".0</ele>\n");
+			out.write("\t\t\t\t<time>" + format.format(new Date(time))
+					+ "</time>\n");
+			out.write("\t\t\t\t<fix>3d</fix>\n");
+			out.write("\t\t\t\t<sat>" + (4 + random.nextInt(8)) + "</sat>\n");
+			out.write("\t\t\t\t<extensions>\n");
+			out.write("\t\t\t\t\t<rmc:course>" + (float) course
+					+ "</rmc:course>\n");
+			out.write("\t\t\t\t\t<rmc:speed>" + (float) speed
+					+ "</rmc:speed>\n");
+			out.write("\t\t\t\t</extensions>\n");
+			out.write("\t\t\t</trkpt>\n");
+		}
+		out.write("\t\t</trkseg>\n\t</trk>\n</gpx>\n");
+	}
+
+	/**
+	 * A gx:Track. KML lists all the times before all the coordinates, so the
+	 * track is generated twice from the same seed.
+	 */
+	public void writeKml(Writer out, int count) throws IOException {
+		SimpleDateFormat format = isoFormat();
+
+		out.write("<?xml version='1.0' encoding='UTF-8' ?>\n");
+		out.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n");
+		out.write("<Document>\n\t<Placemark>\n\t\t<gx:Track>\n");
+		SyntheticGpx times = new SyntheticGpx();
+		for (int i = 0; i < count; i++) {
+			times.step();
+			out.write("\t\t\t<when>" + format.format(new Date(times.time))
+					+ "</when>\n");
+		}
+		for (int i = 0; i < count; i++) {
+			step();
+			out.write("\t\t\t<gx:coord>" + lon + " " + lat + " "
+					+ Math.round(ele) + "</gx:coord>\n");
+		}
+		out.write("\t\t</gx:Track>\n\t</Placemark>\n</Document>\n</kml>\n");
+	}
+
+	public void writeTcx(Writer out, int count) throws IOException {
+		SimpleDateFormat format = isoFormat();
+
+		out.write("<?xml version='1.0' encoding='UTF-8' ?>\n");
+		out.write("<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\" xmlns:ns3=\"http://www.garmin.com/xmlschemas/ActivityExtension/v2\">\n");
+		out.write("<Activities>\n<Activity Sport=\"Other\">\n");
+		out.write("<Id>" + format.format(new Date(time)) + "</Id>\n");
+		out.write("<Lap StartTime=\"" + format.format(new Date(time))
+				+ "\">\n<Track>\n");
+		for (int i = 0; i < count; i++) {
+			step();
+			out.write("\t<Trackpoint>\n");
+			out.write("\t\t<Time>" + format.format(new Date(time)) + "</Time>\n");
+			out.write("\t\t<Position>\n\t\t\t<LatitudeDegrees>" + lat
+					+ "</LatitudeDegrees>\n\t\t\t<LongitudeDegrees>" + lon
+					+ "</LongitudeDegrees>\n\t\t</Position>\n");
+			out.write("\t\t<AltitudeMeters>" + Math.round(ele)
+					+ ".0</AltitudeMeters>\n");
+			out.write("\t\t<Extensions><ns3:TPX><ns3:Speed>" + (float) speed
+					+ "</ns3:Speed></ns3:TPX></Extensions>\n");
+			out.write("\t</Trackpoint>\n");
+		}
+		out.write("</Track>\n</Lap>\n</Activity>\n</Activities>\n</TrainingCenterDatabase>\n");
+	}
+
+	/**
+	 * A LineString feature, with coordTimes ahead of the geometry so that
+	 * the points are timed.
+	 */
+	public void writeGeoJson(Writer out, int count) throws IOException {
+		SimpleDateFormat format = isoFormat();
+
+		out.write("{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\n");
+		out.write("\"properties\":{\"coordTimes\":[\n");
+		SyntheticGpx times = new SyntheticGpx();
+		for (int i = 0; i < count; i++) {
+			times.step();
+			out.write((i > 0 ? ",\"" : "\"") + format.format(new Date(times.time))
+					+ "\"\n");
+		}
+		out.write("]},\n\"geometry\":{\"type\":\"LineString\",\"coordinates\":[\n");
+		for (int i = 0; i < count; i++) {
+			step();
+			out.write((i > 0 ? ",[" : "[") + lon + "," + lat + ","
+					+ Math.round(ele) + "]\n");
+		}
+		out.write("]}}]}\n");
+	}
+
+	/**
+	 * A GGA and an RMC sentence per fix.
+	 */
+	public void writeNmea(Writer out, int count) throws IOException {
+		SimpleDateFormat timeFormat = new SimpleDateFormat("HHmmss.SS",
+				Locale.US);
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		SimpleDateFormat dateFormat = new SimpleDateFormat("ddMMyy", Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		for (int i = 0; i < count; i++) {
+			step();
+			Date date = new Date(time);
+			String fixTime = timeFormat.format(date);
+			String position = nmeaAngle(lat, 2) + (lat < 0 ? ",S," : ",N,")
+					+ nmeaAngle(lon, 3) + (lon < 0 ? ",W" : ",E");
+			out.write(nmeaSentence("GPGGA," + fixTime + "," + position + ",1,"
+					+ (4 + random.nextInt(8)) + ",0.9," + Math.round(ele)
+					+ ".0,M,,M,,"));
+			out.write(nmeaSentence("GPRMC," + fixTime + ",A," + position + ","
+					+ String.format(Locale.US, "%.1f,%.1f,", speed * 3600 / 1852, course)
+					+ dateFormat.format(date) + ",,"));
+		}
+	}
+
+	public void writeCsv(Writer out, int count) throws IOException {
+		SimpleDateFormat format = isoFormat();
+
+		out.write("time,lat,lon,ele,speed,course\n");
+		for (int i = 0; i < count; i++) {
+			step();
+			out.write(format.format(new Date(time)) + "," + lat + "," + lon
+					+ "," + Math.round(ele) + "," + (float) speed + ","
+					+ (float) course + "\n");
+		}
+	}
+
+	private static SimpleDateFormat isoFormat() {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	/**
+	 * Degrees as NMEA (d)ddmm.mmmm, without the sign.
+	 */
+	private static String nmeaAngle(double degrees, int width) {
+		double value = Math.abs(degrees);
+		int whole = (int) value;
+		double minutes = (value - whole) * 60;
+		return String.format(Locale.US, "%0" + width + "d%07.4f", whole,
+				minutes);
+	}
+
+	private static String nmeaSentence(String body) {
+		int sum = 0;
+		for (int i = 0; i < body.length(); i++)
+			sum ^= body.charAt(i);
+		return String.format(Locale.US, "$%s*%02X\r\n", body, sum);
+	}
+
+	private void step() {
+		time += 1000;
+		// Mix of stationary runs and city driving
+		if (random.nextInt(20) == 0)
+			speed = random.nextInt(4) == 0 ? 0 : 5 + random.nextDouble() * 20;
+		course = (course + random.nextGaussian() * 5 + 360) % 360;
+		double rad = Math.toRadians(course);
+		lat += speed * Math.cos(rad) / 111320.0;
+		lon += speed * Math.sin(rad)
+				/ (111320.0 * Math.cos(Math.toRadians(lat)));
+		ele += random.nextGaussian() * 0.5;
+	}
+
+}
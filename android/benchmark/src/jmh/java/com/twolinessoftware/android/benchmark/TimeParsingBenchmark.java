@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.benchmark.GpxParserBenchmark.PointCounter;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTime;
+
+/**
+ * Decoding of the trkpt time values of the sample track. The "points"
+ * counter reports timestamps per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class TimeParsingBenchmark {
+
+	private String[] times;
+
+	@Setup
+	public void setup() throws IOException {
+		String xml = new String(GpxInputs.readFully(GpxInputs.sampleFile()),
+				"UTF-8");
+		ArrayList<String> list = new ArrayList<String>();
+		Matcher m = Pattern.compile("<time>([^<]*)</time>").matcher(xml);
+		while (m.find()) {
+			list.add(m.group(1));
+		}
+		times = list.toArray(new String[list.size()]);
+	}
+
+	/**
+	 * What PlaybackService.onGpxPoint used to do for every point.
+	 */
+	@Benchmark
+	public void simpleDateFormatPerPoint(PointCounter counter, Blackhole bh)
+			throws ParseException {
+		for (String time : times) {
+			SimpleDateFormat format = new SimpleDateFormat(
+					"yyyy-MM-dd'T'HH:mm:ss'Z'");
+			bh.consume(format.parse(time).getTime());
+		}
+		counter.points += times.length;
+	}
+
+	@Benchmark
+	public void gpxTime(PointCounter counter, Blackhole bh) {
+		for (String time : times) {
+			bh.consume(GpxTime.parse(time));
+		}
+		counter.points += times.length;
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.twolinessoftware.android.framework.util.TimerWheel;
+
+/**
+ * Scheduling 100k pending fixes, spread over many streams, on the timer
+ * wheel of SendLocationWorkerQueue against the PriorityQueue of one object
+ * per fix it replaced.
+ *
+ * The drain benchmarks schedule everything and expire it in 10ms steps of
+ * simulated time, which is the scheduling overhead alone. The realTime
+ * benchmarks spread the fixes over 200ms of wall clock and drain them as
+ * they come due; the lateness percentiles of each iteration are printed
+ * after it.
+ */
+@State(Scope.Benchmark)
+public class TimerWheelBenchmark {
+
+	private static final long STEP_MILLIS = 10;
+
+	private static final long REAL_TIME_MICROS = 200000;
+
+	@Param({ "100000" })
+	public int fixes;
+
+	@Param({ "100" })
+	public int streams;
+
+	// Send times in ms, one point per second per stream with some jitter
+	private long[] times;
+
+	private long[] realTimes;
+
+	private final Lateness wheelLateness = new Lateness();
+	private final Lateness queueLateness = new Lateness();
+
+	private static final class Fix implements Comparable<Fix> {
+
+		final long time;
+		final int stream;
+		final int index;
+
+		Fix(long time, int stream, int index) {
+			this.time = time;
+			this.stream = stream;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Fix other) {
+			return time < other.time ? -1 : (time == other.time ? 0 : 1);
+		}
+	}
+
+	private static final class Counter implements TimerWheel.Handler {
+
+		long count;
+		long checksum;
+
+		@Override
+		public void onExpired(long time, int stream, int index, int offset) {
+			count++;
+			checksum += index;
+		}
+	}
+
+	private static final class Lateness implements TimerWheel.Handler {
+
+		long[] micros;
+		int count;
+		long now;
+
+		void start(int size) {
+			if (micros == null || micros.length < size)
+				micros = new long[size];
+			count = 0;
+		}
+
+		void record(long lateness) {
+			if (count < micros.length)
+				micros[count] = lateness;
+			count++;
+		}
+
+		@Override
+		public void onExpired(long time, int stream, int index, int offset) {
+			record(now - time);
+		}
+
+		String report() {
+			int n = Math.min(count, micros.length);
+			if (n == 0)
+				return "none";
+			long[] sorted = Arrays.copyOf(micros, n);
+			Arrays.sort(sorted);
+			return "p50:" + sorted[n / 2] + "us p99:" + sorted[(int) (n * 0.99)]
+					+ "us p99.9:" + sorted[(int) (n * 0.999)] + "us max:"
+					+ sorted[n - 1] + "us over " + count + " fixes";
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		times = new long[fixes];
+		realTimes = new long[fixes];
+		for (int i = 0; i < fixes; i++) {
+			int point = i / streams;
+			times[i] = point * 1000L + random.nextInt(1000);
+			realTimes[i] = (long) (random.nextDouble() * REAL_TIME_MICROS);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public long drainTimerWheel() {
+		TimerWheel wheel = new TimerWheel(STEP_MILLIS, 4096, 256);
+		Counter counter = new Counter();
+		long end = 0;
+		for (int i = 0; i < fixes; i++) {
+			wheel.schedule(times[i], i % streams, i / streams, 0);
+			end = Math.max(end, times[i]);
+		}
+		for (long now = 0; now <= end; now += STEP_MILLIS) {
+			wheel.expire(now, counter);
+		}
+		return counter.count + counter.checksum;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public long drainPriorityQueue() {
+		PriorityQueue<Fix> queue = new PriorityQueue<Fix>(64);
+		long count = 0;
+		long checksum = 0;
+		long end = 0;
+		for (int i = 0; i < fixes; i++) {
+			queue.add(new Fix(times[i], i % streams, i / streams));
+			end = Math.max(end, times[i]);
+		}
+		for (long now = 0; now <= end; now += STEP_MILLIS) {
+			while (!queue.isEmpty() && queue.peek().time <= now) {
+				checksum += queue.poll().index;
+				count++;
+			}
+		}
+		return count + checksum;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public int realTimeTimerWheel() {
+		// 100us ticks, so a rotation covers the whole run
+		TimerWheel wheel = new TimerWheel(100, 4096, fixes);
+		Lateness lateness = wheelLateness;
+		lateness.start(fixes);
+
+		for (int i = 0; i < fixes; i++) {
+			wheel.schedule(realTimes[i], i % streams, i / streams, 0);
+		}
+		long start = System.nanoTime();
+		while (!wheel.isEmpty()) {
+			lateness.now = (System.nanoTime() - start) / 1000;
+			wheel.expire(lateness.now, lateness);
+		}
+		return lateness.count;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public int realTimePriorityQueue() {
+		PriorityQueue<Fix> queue = new PriorityQueue<Fix>(64);
+		Lateness lateness = queueLateness;
+		lateness.start(fixes);
+
+		for (int i = 0; i < fixes; i++) {
+			queue.add(new Fix(realTimes[i], i % streams, i / streams));
+		}
+		long start = System.nanoTime();
+		while (!queue.isEmpty()) {
+			long now = (System.nanoTime() - start) / 1000;
+			while (!queue.isEmpty() && queue.peek().time <= now) {
+				lateness.record(now - queue.poll().time);
+			}
+		}
+		return lateness.count;
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		if (wheelLateness.count > 0)
+			System.out.println("TimerWheel lateness " + wheelLateness.report());
+		if (queueLateness.count > 0)
+			System.out.println("PriorityQueue lateness " + queueLateness.report());
+		wheelLateness.count = 0;
+		queueLateness.count = 0;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.benchmark.GpxParserBenchmark.PointCounter;
+import com.twolinessoftware.android.framework.service.comms.TrackDecoders;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxParserType;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+
+/**
+ * Decodes the same synthetic 1M point track in each format through
+ * TrackDecoders, sniffing included. The "points" counter reports decoded
+ * points per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class TrackDecoderBenchmark {
+
+	@Param({ "gpx", "kml", "tcx", "geojson", "nmea", "csv" })
+	public String format;
+
+	private File file;
+
+	private TrackDecoders decoders;
+
+	@Setup
+	public void setup() throws IOException {
+		file = SyntheticGpx.file(GpxInputs.SYNTHETIC_1M_POINTS, format);
+		decoders = TrackDecoders.defaults(GpxParserType.pull);
+	}
+
+	@Benchmark
+	public void decode(final PointCounter counter, final Blackhole bh)
+			throws IOException {
+		GpxSaxParserListener listener = new GpxSaxParserListener() {
+
+			@Override
+			public void onGpxPoint(GpxTrackPoint item) {
+				counter.points++;
+				bh.consume(item.getLat());
+				bh.consume(item.getLon());
+				bh.consume(item.getEle());
+				bh.consume(item.getTime());
+			}
+
+			@Override
+			public void onGpxError(String message) {
+				throw new IllegalStateException(message);
+			}
+
+			@Override
+			public void onGpxStart() {
+			}
+
+			@Override
+			public void onGpxEnd() {
+			}
+		};
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file),
+				64 * 1024);
+		try {
+			decoders.decode(in, listener);
+		} finally {
+			in.close();
+		}
+	}
+
+}
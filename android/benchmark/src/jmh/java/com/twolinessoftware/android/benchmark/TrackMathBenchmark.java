@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011 2linessoftware.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twolinessoftware.android.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twolinessoftware.android.benchmark.GpxParserBenchmark.PointCounter;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParser;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxSaxParserListener;
+import com.twolinessoftware.android.framework.service.comms.gpx.GpxTrackPoint;
+import com.twolinessoftware.android.framework.track.TrackBuffer;
+import com.twolinessoftware.android.framework.util.GeoMath;
+
+/**
+ * Heading and speed calculation over every consecutive pair of points: the
+ * old planar JTS path against GeoMath, per pair and as one pass over the
+ * track columns. The "points" counter reports pairs per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class TrackMathBenchmark {
+
+	@Param({ GpxInputs.SAMPLE, GpxInputs.SYNTHETIC_1M })
+	public String input;
+
+	private GpxTrackPoint[] points;
+
+	private TrackBuffer track;
+
+	@Setup
+	public void setup() throws IOException {
+		if (GpxInputs.SYNTHETIC_1M.equals(input)) {
+			points = SyntheticGpx.points(GpxInputs.SYNTHETIC_1M_POINTS);
+			return;
+		}
+
+		final ArrayList<GpxTrackPoint> list = new ArrayList<GpxTrackPoint>();
+		InputStream in = new GpxInputs(input).open();
+		try {
+			new GpxSaxParser(new GpxSaxParserListener() {
+
+				@Override
+				public void onGpxPoint(GpxTrackPoint item) {
+					list.add(new GpxTrackPoint(item));
+				}
+
+				@Override
+				public void onGpxError(String message) {
+					throw new IllegalStateException(message);
+				}
+
+				@Override
+				public void onGpxStart() {
+				}
+
+				@Override
+				public void onGpxEnd() {
+				}
+			}).parse(in);
+		} finally {
+			in.close();
+		}
+		points = list.toArray(new GpxTrackPoint[list.size()]);
+	}
+
+	@Setup
+	public void setupTrack() {
+		track = new TrackBuffer();
+		for (GpxTrackPoint point : points)
+			track.add(point);
+	}
+
+	@Benchmark
+	public void jtsHeading(PointCounter counter, Blackhole bh) {
+		for (int i = 1; i < points.length; i++) {
+			bh.consume(JtsTrackMath.calculateHeadingFromPreviousPoint(
+					points[i - 1], points[i]));
+		}
+		counter.points += points.length - 1;
+	}
+
+	@Benchmark
+	public void jtsSpeed(PointCounter counter, Blackhole bh) {
+		for (int i = 1; i < points.length; i++) {
+			bh.consume(JtsTrackMath.calculateSpeedFromPreviousPoint(
+					points[i - 1], points[i]));
+		}
+		counter.points += points.length - 1;
+	}
+
+	@Benchmark
+	public void initialBearing(PointCounter counter, Blackhole bh) {
+		for (int i = 1; i < track.size(); i++) {
+			bh.consume(GeoMath.initialBearing(track.getLat(i - 1),
+					track.getLon(i - 1), track.getLat(i), track.getLon(i)));
+		}
+		counter.points += track.size() - 1;
+	}
+
+	@Benchmark
+	public void haversine(PointCounter counter, Blackhole bh) {
+		for (int i = 1; i < track.size(); i++) {
+			bh.consume(GeoMath.haversine(track.getLat(i - 1),
+					track.getLon(i - 1), track.getLat(i), track.getLon(i)));
+		}
+		counter.points += track.size() - 1;
+	}
+
+	@Benchmark
+	public void vincenty(PointCounter counter, Blackhole bh) {
+		for (int i = 1; i < track.size(); i++) {
+			bh.consume(GeoMath.vincenty(track.getLat(i - 1),
+					track.getLon(i - 1), track.getLat(i), track.getLon(i)));
+		}
+		counter.points += track.size() - 1;
+	}
+
+	@Benchmark
+	public void updateMotion(PointCounter counter, Blackhole bh) {
+		track.updateMotion(0, track.size());
+		bh.consume(track.getSpeed(track.size() - 1));
+		counter.points += track.size() - 1;
+	}
+
+}